@@ -10,65 +10,246 @@ Description:  This term frequency program is to read a text file.
 ******************************************************************************/
 
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedInputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.Map.Entry;
-import java.util.regex.Pattern;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public class actors_style {
     
     
+    //Class variables
+    private static final int MESSAGES_PER_TURN = 256;
+    private static int batchSize = 4096;
+    private static int mailboxCapacity = 64;
+    private static int stopWordManagers = 1;
+    private static int frequencyManagers = 1;
+    private static boolean queueStats = false;
+    private static boolean stream = false;
+    private static boolean unicode = false;
+    private static boolean nfc = false;
+    private static String counterKind = "table";
+    private static int topCount = 25;
+    private static String stopWordsPath = null;
+    private static List<Path> loadSnapshots = new ArrayList<Path>();
+    private static Path saveSnapshot = null;
+    private static Path exportDirectory = null;
+    private static stop_word_filter stopWordFilter = null;
+    private static int servePort = -1;
+    private static int maxRequests = 4;
+    private static int maxRequestBytes = 16 * 1024 * 1024;
+    private static final int REQUEST_TIMEOUT_SECONDS = 60;
+    private static final term_metrics.stage READ_STAGE = term_metrics.stage("read");
+    private static final term_metrics.stage TOKENIZE_STAGE = term_metrics.stage("tokenize");
+    private static final term_metrics.stage FILTER_STAGE = term_metrics.stage("filter");
+    private static final term_metrics.stage COUNT_STAGE = term_metrics.stage("count");
+    private static final term_metrics.stage TOP_STAGE = term_metrics.stage("top");
+    private static final LongAdder TOKENS = term_metrics.counter("tokens");
+    private static final LongAdder STOP_WORDS = term_metrics.counter("stop_words");
+    private static final ExecutorService scheduler = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), task -> {
+                Thread thread = new Thread(task, "actor-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+    
+    
+    /******************************************************************************
+    Class:          actorMailbox
+    Description:    The queue of pending messages of an active object. The mailbox
+                    keeps count of its pending messages so that its owner is only
+                    scheduled when the mailbox goes from empty to non-empty,
+                    leaving the scheduler threads parked while there is nothing
+                    to do. The mailbox also keeps the largest number of
+                    messages it has held, so the depth of each queue can be
+                    checked against the mailbox capacity
+    Data Fields:    messages  - The messages waiting to be dispatched
+                    pending  - The number of messages not yet dispatched
+                    maxDepth  - The largest number of messages held at once
+                    received  - The number of messages placed within the mailbox
+    Functions:      offer  - Places a message within the mailbox and indicates if
+                             the owner needs to be scheduled
+                    poll  - Takes the next message from the mailbox
+                    release  - Marks a message as dispatched and indicates if more
+                               messages remain
+                    maxDepth  - Returns the largest number of messages held
+                    received  - Returns the number of messages received
+    ******************************************************************************/
+    static class actorMailbox {
+        
+        
+        //Instance variables
+        private final Queue<actorMessage> messages = new ConcurrentLinkedQueue<actorMessage>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicInteger maxDepth = new AtomicInteger();
+        private final AtomicLong received = new AtomicLong();
+        
+        
+        public boolean offer(actorMessage message) {
+            messages.offer(message);
+            received.incrementAndGet();
+            int depth = pending.incrementAndGet();
+            if (depth > maxDepth.get())
+                maxDepth.accumulateAndGet(depth, Math::max);
+            return depth == 1;
+        }
+        
+        public actorMessage poll() {
+            return messages.poll();
+        }
+        
+        public boolean release() {
+            return pending.decrementAndGet() != 0;
+        }
+        
+        public int maxDepth() {
+            return maxDepth.get();
+        }
+        
+        public long received() {
+            return received.get();
+        }
+    }
+    
+    
     /******************************************************************************
     Class:          activeWFObject
     Description:    An abstraction that implements the generic behavior of our
-                    active objects (our Actors)
+                    active objects (our Actors). Active objects do not own a
+                    thread; they are run on the shared scheduler whenever their
+                    mailbox has messages
     Data Fields:    objectName  - The name of the active object
-                    objectQueue  - The queue associated to the active object
-                    stopFlag  - Flag to indicate when the thread is to stop
+                    objectQueue  - The mailbox associated to the active object
+                    stopped  - Flag to indicate when the object is to stop
+                    terminated  - Released once the object has stopped
+                    failure  - Receives the error of a message that could not
+                               be handled
     Functions:      activeWFObject  - Constructor that defines the abstraction
-                    run  - Takes messages from the queue and dispatches them
+                    run  - Takes messages from the mailbox and dispatches them
+                    onFailure  - Sets what receives the error of a message
+                                 that could not be handled
+                    enqueue  - Places a message within the mailbox and schedules
+                               the object if needed
+                    terminate  - Stops the object from taking further messages
+                    join  - Waits until the object has stopped
+                    queueStats  - Describes the depth of the mailbox
+                    recordQueueDepth  - Records the depth of the mailbox within
+                                        the metrics
                     dispatch  - Abstract method with no implementation (will be
                                 defined within the subclass)
     ******************************************************************************/
-    static abstract class activeWFObject extends Thread {
+    static abstract class activeWFObject implements Runnable {
         
         
         //Instance variables
-    	private String objectName;
-    	private Queue<List<Object>> objectQueue;
-    	public boolean stopFlag;
+    	private final String objectName;
+    	private final actorMailbox objectQueue;
+    	private volatile boolean stopped;
+    	private final CountDownLatch terminated;
+    	private Consumer<Exception> failure = Throwable::printStackTrace;
     	
     	
     	public activeWFObject() {
     		objectName = getClass().getSimpleName();
-    		objectQueue = new LinkedBlockingQueue<List<Object>>();
-    		stopFlag = false;
-    		start();
+    		objectQueue = new actorMailbox();
+    		stopped = false;
+    		terminated = new CountDownLatch(1);
     	}
     	
     	public void run() {
-    		while (!stopFlag){
-    			List<Object> message = objectQueue.poll();
+    	    
+    	    
+    	    //Yields the scheduler thread after a fixed number of messages so the other objects get a turn
+    	    for (int i = 0; i < MESSAGES_PER_TURN; i++) {
+    			actorMessage message = objectQueue.poll();
+    			boolean more;
     			try {
-    				if (message != null) {
+    				if (!stopped && message instanceof cancelMessage)
+    				    terminate();
+    				else if (!stopped) {
     					dispatch(message);
-    					if (message.get(0).equals("die")) {
-    					    stopFlag = true;
-					    }
+    					if (message instanceof dieMessage)
+    					    terminate();
     				}
     			}
-    			catch (IOException e) {
-    			    e.printStackTrace();
+    			catch (IOException | RuntimeException e) {
+    			    
+    			    
+    			    //The object stops at its first error, and the message is still released so the mailbox is scheduled again
+    			    terminate();
+    			    failure.accept(e);
+    			}
+    			finally {
+    			    more = objectQueue.release();
     			}
+    			
+    			if (!more)
+    			    return;
     		}
+    		scheduler.execute(this);
+    	}
+    	
+    	public void onFailure(Consumer<Exception> failure) {
+    	    this.failure = failure;
+    	}
+    	
+    	public void enqueue(actorMessage message) {
+    	    if (objectQueue.offer(message))
+    	        scheduler.execute(this);
+    	}
+    	
+    	public void terminate() {
+    	    if (!stopped) {
+    	        stopped = true;
+    	        terminated.countDown();
+    	    }
+    	}
+    	
+    	public void join() throws InterruptedException {
+    	    terminated.await();
+    	}
+    	
+    	public String queueStats() {
+    	    return objectName + "  -  max depth " + objectQueue.maxDepth() + ", received " + objectQueue.received();
+    	}
+    	
+    	public void recordQueueDepth() {
+    	    term_metrics.gaugeMax(objectName + ".max_depth", objectQueue.maxDepth());
     	}
     	
     	
     	//Method that will be overriden from subclass
-    	public abstract void dispatch(List<Object> message) throws IOException;
+    	public abstract void dispatch(actorMessage message) throws IOException;
     }
     
     
@@ -79,66 +260,361 @@ public class actors_style {
                     message  - The message that is being sent
     Result:         Places the message within the queue of the listed receiver
     ******************************************************************************/
-    public static void send(activeWFObject receiver, List<Object> message) {
-		receiver.objectQueue.offer(message);
+    public static void send(activeWFObject receiver, actorMessage message) {
+		receiver.enqueue(message);
 	}
     
     
+    /******************************************************************************
+    Class:          actorMessage
+    Description:    The base of the typed messages exchanged between our active
+                    objects. Each kind of message is its own class so that the
+                    receivers dispatch on the type of the message instead of
+                    comparing strings
+    ******************************************************************************/
+    static abstract class actorMessage {
+    }
+    
+    
+    /******************************************************************************
+    Class:          storageInitMessage
+    Description:    Initializes the dataStorageManager with the file to read, or
+                    with text that was already read (such as the body of a
+                    request)
+    Data Fields:    path  - The path to the text file specified by the user
+                    contents  - The bytes of the text (null to read the file)
+                    stop_word_managers  - The receivers of the words read, which
+                                          are sent the batches in turn
+                    shards  - The number of wordFrequencyManagers each batch is
+                              split between
+    ******************************************************************************/
+    static final class storageInitMessage extends actorMessage {
+        final String path;
+        final byte[] contents;
+        final stopWordManager[] stop_word_managers;
+        final int shards;
+        
+        storageInitMessage(String path, byte[] contents, stopWordManager[] stop_word_managers, int shards) {
+            this.path = path;
+            this.contents = contents;
+            this.stop_word_managers = stop_word_managers;
+            this.shards = shards;
+        }
+    }
+    
+    
+    /******************************************************************************
+    Class:          stopWordInitMessage
+    Description:    Initializes the stopWordManager with the receivers of the
+                    non-stop words
+    Data Fields:    word_frequency_managers  - The receivers of the non-stop words,
+                                               each one owning a hash shard of
+                                               the words
+    ******************************************************************************/
+    static final class stopWordInitMessage extends actorMessage {
+        final wordFrequencyManager[] word_frequency_managers;
+        
+        stopWordInitMessage(wordFrequencyManager[] word_frequency_managers) {
+            this.word_frequency_managers = word_frequency_managers;
+        }
+    }
+    
+    
+    /******************************************************************************
+    Class:          runMessage
+    Description:    Starts the wordFrequencyManager against the dataStorageManager
+    Data Fields:    data_storage_manager  - The abstraction holding the words
+                    snapshots  - The counts of the snapshots, added first
+    ******************************************************************************/
+    static final class runMessage extends actorMessage {
+        final dataStorageManager data_storage_manager;
+        final List<term_counter> snapshots;
+        
+        runMessage(dataStorageManager data_storage_manager, List<term_counter> snapshots) {
+            this.data_storage_manager = data_storage_manager;
+            this.snapshots = snapshots;
+        }
+    }
+    
+    
+    /******************************************************************************
+    Class:          sendWordFreqsMessage
+    Description:    Asks the dataStorageManager to send out the words of the file
+    Data Fields:    recipient  - The abstraction that will print the results
+    ******************************************************************************/
+    static final class sendWordFreqsMessage extends actorMessage {
+        final wordFrequencyManager recipient;
+        
+        sendWordFreqsMessage(wordFrequencyManager recipient) {
+            this.recipient = recipient;
+        }
+    }
+    
+    
+    /******************************************************************************
+    Class:          filterMessage
+    Description:    A batch of words that are to be checked against the stop words
+    Data Fields:    words  - The words of the batch
+                    count  - The number of words used within the array
+    ******************************************************************************/
+    static final class filterMessage extends actorMessage {
+        final String[] words;
+        final int count;
+        
+        filterMessage(String[] words, int count) {
+            this.words = words;
+            this.count = count;
+        }
+    }
+    
+    
+    /******************************************************************************
+    Class:          wordMessage
+    Description:    A batch of non-stop words that are to be counted
+    Data Fields:    words  - The words of the batch
+                    count  - The number of words used within the array
+    ******************************************************************************/
+    static final class wordMessage extends actorMessage {
+        final String[] words;
+        final int count;
+        
+        wordMessage(String[] words, int count) {
+            this.words = words;
+            this.count = count;
+        }
+    }
+    
+    
+    /******************************************************************************
+    Class:          top25Message
+    Description:    Asks the wordFrequencyManagers to print out the results once
+                    every stopWordManager has sent it on
+    Data Fields:    recipient  - The abstraction that will print the results
+    ******************************************************************************/
+    static final class top25Message extends actorMessage {
+        final wordFrequencyManager recipient;
+        
+        top25Message(wordFrequencyManager recipient) {
+            this.recipient = recipient;
+        }
+    }
+    
+    
+    /******************************************************************************
+    Class:          dieMessage
+    Description:    Tells the active objects to stop once they have forwarded it
+    ******************************************************************************/
+    static final class dieMessage extends actorMessage {
+        static final dieMessage INSTANCE = new dieMessage();
+    }
+    
+    
+    /******************************************************************************
+    Class:          cancelMessage
+    Description:    Tells an active object to stop at once, without forwarding it,
+                    once another object of its count has failed
+    ******************************************************************************/
+    static final class cancelMessage extends actorMessage {
+        static final cancelMessage INSTANCE = new cancelMessage();
+    }
+    
+    
+    /******************************************************************************
+    Class:          resumeMessage
+    Description:    Tells the dataStorageManager that enough of its batches have
+                    been counted for it to send out more words
+    ******************************************************************************/
+    static final class resumeMessage extends actorMessage {
+        static final resumeMessage INSTANCE = new resumeMessage();
+    }
+    
+    
     /******************************************************************************
     Class:          dataStoreageManager
     Description:    An abstraction that stores and processes the contents of a file
                     (specifically, the text file specified by the user)
-    Data Fields:    stop_word_manager  - The abstraction associated to the
-                                         stopWordManager class
-                    contents  - The text within the file specified by the user
+    Data Fields:    stop_word_managers  - The abstractions associated to the
+                                          stopWordManager class
+                    next  - The index of the stopWordManager sent the next batch
+                    shards  - The number of messages each batch is split into
+                    path  - The path to the text file specified by the user
+                    contents  - The bytes of the file specified by the user
+                                (left empty when streaming) or of the request
+                    batch  - The batch of words being filled
+                    count  - The number of words within the batch
+                    tokenizer  - Splits the contents into words
+                    input  - The text file being streamed
+                    buffer  - The bytes last read from the text file
+                    position  - The index of the next byte of the contents to
+                                tokenize
+                    bytesTokenized  - The number of bytes tokenized so far
+                    words  - The number of words read so far
+                    recipient  - The abstraction that will print the results
+                    inFlight  - The number of parts of batches sent out and not
+                                yet counted
+                    paused  - Flag to indicate that the abstraction is waiting
+                              for its batches to be counted
     Functions:      dispatch  - Reads the contents of the message and delegates
                                 what to do based on the contents
                     init  - Initializes the abstraction by reading the contents of
-                            the file and parsing the contents into a string
-                    processWords  - Splits the contents of the string into an
-                                    array and sends messages to the queues of its
-                                    receivers in order to process the contents of
-                                    the array
+                            the file
+                    processWords  - Starts tokenizing the contents of the file (or
+                                    streaming the file)
+                    produce  - Sends batches of words to the queues of its
+                               receivers in order to process the words, pausing
+                               once mailboxCapacity batches are waiting to be
+                               counted
+                    tokenizeNext  - Tokenizes the next slice of the contents
+                    release  - Marks a part of a batch as counted and resumes the
+                               abstraction once half of the batches waiting
+                               have been counted
+                    addWord  - Adds a word to the batch and sends the batch once
+                               it is full
+                    flush  - Sends the batch to the next stopWordManager if it
+                             holds any words
     ******************************************************************************/
     static class dataStorageManager extends activeWFObject {
         
         
         //Instance variables
-    	private stopWordManager stop_word_manager;
-    	private String contents;
+    	private stopWordManager[] stop_word_managers;
+    	private int next;
+    	private int shards;
+    	private String path;
+    	private byte[] contents;
+    	private String[] batch;
+    	private int count;
+    	private text_tokenizer tokenizer;
+    	private InputStream input;
+    	private byte[] buffer;
+    	private int position;
+    	private long bytesTokenized;
+    	private long words;
+    	private wordFrequencyManager recipient;
+    	private final AtomicInteger inFlight = new AtomicInteger();
+    	private final AtomicBoolean paused = new AtomicBoolean();
     	
     	
     	@Override
-    	public void dispatch(List<Object> message) throws IOException {
-    		if (message.get(0).equals("init"))
-    			init(message.subList(1, message.size()));
-    		else if (message.get(0).equals("send_word_freqs"))
-    			processWords(message.subList(1, message.size()));
-    		else
-    			send(stop_word_manager, message);
+    	public void dispatch(actorMessage message) throws IOException {
+    		if (message instanceof storageInitMessage)
+    			init((storageInitMessage) message);
+    		else if (message instanceof sendWordFreqsMessage)
+    			processWords((sendWordFreqsMessage) message);
+    		else if (message instanceof resumeMessage)
+    		    produce();
+    		else {
+    		    for (stopWordManager stop_word_manager : stop_word_managers)
+    		        send(stop_word_manager, message);
+    		}
     	}
     	
-    	public void init(List<Object> message) throws IOException {		
-    		String path = (String) message.get(0);
-    		contents = new String(Files.readAllBytes(Paths.get(path))).toLowerCase();
-    		contents = Pattern.compile("[^a-zA-Z]").matcher(contents).replaceAll(" ");
-    		stop_word_manager = (stopWordManager) message.get(1);
+    	public void init(storageInitMessage message) throws IOException {		
+    		path = message.path;
+    		contents = message.contents;
+    		stop_word_managers = message.stop_word_managers;
+    		shards = message.shards;
+    		
+    		
+    		//When streaming, the file is only read once the words are requested
+    		if (contents != null || stream)
+    		    return;
+    		
+    		long begin = READ_STAGE.begin();
+    		contents = Files.readAllBytes(Paths.get(path));
+    		READ_STAGE.end(begin, contents.length, contents.length);
     	}
     	
-    	public void processWords(List<Object> message) {
-    		String[] words = contents.split(" ");
-            wordFrequencyManager recipient = (wordFrequencyManager)message.get(0);
-    		for (int i = 0; i < words.length; i++) {
-    		    
-    		    
-    		    //Covers the edge cases such as the single 's' and whitespace characters
-    		    if (words[i].length() < 2)
-    		        continue;
-		        
-		        
-    		    send(stop_word_manager, new ArrayList<Object>(Arrays.asList("filter", words[i])));
-    		}
-    		send(stop_word_manager, new ArrayList<Object>(Arrays.asList("top25", recipient)));
+    	public void processWords(sendWordFreqsMessage message) throws IOException {
+    		batch = new String[batchSize];
+    		count = 0;
+    		tokenizer = new text_tokenizer(unicode, nfc);
+    		recipient = message.recipient;
+    		
+    		
+    		//Slices of about two batches keep the batches sent out between two checks of the capacity small
+    		buffer = new byte[Math.min(64 * 1024, batchSize * 16)];
+    		position = 0;
+    		if (contents == null)
+    		    input = new BufferedInputStream(Files.newInputStream(Paths.get(path)), 64 * 1024);
+    		
+    		produce();
+    	}
+    	
+    	private void produce() throws IOException {
+    	    if (tokenizer == null)
+    	        return;
+    	    
+    	    long begin = TOKENIZE_STAGE.begin();
+    	    long bytesBefore = bytesTokenized;
+    	    long wordsBefore = words;
+    	    try {
+    	        while (true) {
+    	            
+    	            
+    	            //The flag is set before checking again so that a batch counted in between still resumes this object
+    	            if (mailboxCapacity > 0 && inFlight.get() >= mailboxCapacity * shards) {
+    	                paused.set(true);
+    	                if (inFlight.get() > mailboxCapacity * shards / 2 || !paused.compareAndSet(true, false))
+    	                    return;
+    	            }
+    	            
+    	            if (!tokenizeNext())
+    	                break;
+    	        }
+    	        
+    	        tokenizer.finish(this::addWord);
+    	        flush();
+    	        if (input != null)
+    	            input.close();
+    	        tokenizer = null;
+    	        for (stopWordManager stop_word_manager : stop_word_managers)
+    	            send(stop_word_manager, new top25Message(recipient));
+    	    }
+    	    finally {
+    	        TOKENIZE_STAGE.end(begin, bytesTokenized - bytesBefore, words - wordsBefore);
+    	    }
+    	}
+    	
+    	private boolean tokenizeNext() throws IOException {
+    	    if (input != null) {
+    	        int read = input.read(buffer, 0, buffer.length);
+    	        if (read == -1)
+    	            return false;
+    	        bytesTokenized += read;
+    	        tokenizer.tokenize(buffer, 0, read, this::addWord);
+    	        return true;
+    	    }
+    	    
+    	    if (position == contents.length)
+    	        return false;
+    	    int end = Math.min(contents.length, position + buffer.length);
+    	    tokenizer.tokenize(contents, position, end, this::addWord);
+    	    bytesTokenized += end - position;
+    	    position = end;
+    	    return true;
+    	}
+    	
+    	public void release() {
+    	    if (inFlight.decrementAndGet() <= mailboxCapacity * shards / 2 && paused.compareAndSet(true, false))
+    	        send(this, resumeMessage.INSTANCE);
+    	}
+    	
+    	private void addWord(String word) {
+    	    words++;
+    	    batch[count++] = word;
+    	    if (count == batch.length)
+    	        flush();
+    	}
+    	
+    	private void flush() {
+    	    if (count > 0) {
+    	        inFlight.addAndGet(shards);
+    	        send(stop_word_managers[next], new filterMessage(batch, count));
+    	        next = (next + 1) % stop_word_managers.length;
+    	        batch = new String[batchSize];
+    	        count = 0;
+    	    }
     	}
     }
     
@@ -147,111 +623,508 @@ public class actors_style {
     Class:          stopWordManager
     Description:    An abstraction that stores and processes the contents of a file
                     containing the list of stop words
-    Data Fields:    word_frequency_manager  - The abstraction associated to the
-                                              wordFrequencyManager class
-                    stopWords  - The list of stop words obtained
+    Data Fields:    word_frequency_managers  - The abstractions associated to the
+                                               wordFrequencyManager class
+                    stopWords  - The filter compiled from the list of stop words
+                    route  - The shard of each non-stop word of the batch
+                    filterMetrics  - Records the filtering of each batch
+                    tokens  - The number of words filtered
+                    stopWordsFound  - The number of stop words found
     Functions:      dispatch  - Reads the contents of the message and delegates
                                 what to do based on the contents
                     init  - Initializes the abstraction by reading the list of
                             stop words
                     filter  - Sends messages to the queues of its receivers in
-                              order to process the non-stop words
+                              order to process the non-stop words, each
+                              wordFrequencyManager receiving the words of its
+                              own shard
+                    terminate  - Adds the words filtered and the stop words
+                                 found to the metrics once, then stops the
+                                 object
     ******************************************************************************/
     static class stopWordManager extends activeWFObject {
         
         
         //Instance variables
-    	private wordFrequencyManager word_frequency_manager;
-    	private Set<String> stopWords = new HashSet<String>();
+    	private wordFrequencyManager[] word_frequency_managers;
+    	private stop_word_filter stopWords;
+    	private int[] route = new int[0];
+    	private final term_metrics.recorder filterMetrics = FILTER_STAGE.recorder();
+    	private long tokens = 0;
+    	private long stopWordsFound = 0;
     	
     	
     	@Override
-    	public void dispatch(List<Object> message) throws IOException {
-    		if (message.get(0).equals("init"))
-    			init(message.subList(1, message.size()));
-    		else if (message.get(0).equals("filter"))
-    			filter(message.subList(1, message.size()));
-    		else
-    			send(word_frequency_manager, message);
+    	public void dispatch(actorMessage message) throws IOException {
+    		if (message instanceof stopWordInitMessage)
+    			init((stopWordInitMessage) message);
+    		else if (message instanceof filterMessage)
+    			filter((filterMessage) message);
+    		else {
+    		    for (wordFrequencyManager word_frequency_manager : word_frequency_managers)
+    		        send(word_frequency_manager, message);
+    		}
     	}
     	
-    	public void init(List<Object> message) throws IOException {
-    		String[] words = new String(Files.readAllBytes(Paths.get("stop_words.txt"))).split(",");
-    		for (int i = 0; i < words.length; i++)
-    		    stopWords.add(words[i]);
-    		word_frequency_manager = (wordFrequencyManager) message.get(0);
+    	public void init(stopWordInitMessage message) throws IOException {
+    		stopWords = loadStopWords();
+    		word_frequency_managers = message.word_frequency_managers;
     	}
     	
-    	public void filter(List<Object> message) {
-    		String word = (String) message.get(0);
-    		if (!stopWords.contains(word))
-    			send(word_frequency_manager, new ArrayList<Object>(Arrays.asList("word", word)));
+    	public void filter(filterMessage message) {
+    	    
+    	    
+    	    //The batch is owned by this object once received, so the non-stop words are compacted in place
+    	    long begin = filterMetrics.begin();
+    	    String[] words = message.words;
+    	    int count = 0;
+    	    for (int i = 0; i < message.count; i++) {
+    	        if (!stopWords.contains(words[i]))
+    	            words[count++] = words[i];
+    	    }
+    	    filterMetrics.end(begin, message.count, count);
+    	    tokens += message.count;
+    	    stopWordsFound += message.count - count;
+    	    
+    	    
+    	    //Even an empty batch is sent on, since the batch is only released once it reaches the wordFrequencyManager
+    	    int shards = word_frequency_managers.length;
+    	    if (shards == 1) {
+    	        send(word_frequency_managers[0], new wordMessage(words, count));
+    	        return;
+    	    }
+    	    
+    	    if (route.length < count)
+    	        route = new int[words.length];
+    	    int[] sizes = new int[shards];
+    	    for (int i = 0; i < count; i++) {
+    	        route[i] = term_counter.shardOf(term_count_table.hash(words[i]), shards);
+    	        sizes[route[i]]++;
+    	    }
+    	    
+    	    String[][] parts = new String[shards][];
+    	    for (int shard = 0; shard < shards; shard++)
+    	        parts[shard] = new String[sizes[shard]];
+    	    int[] filled = new int[shards];
+    	    for (int i = 0; i < count; i++)
+    	        parts[route[i]][filled[route[i]]++] = words[i];
+    	    
+    	    for (int shard = 0; shard < shards; shard++)
+    	        send(word_frequency_managers[shard], new wordMessage(parts[shard], sizes[shard]));
+    	}
+    	
+    	@Override
+    	public void terminate() {
+    	    filterMetrics.close();
+    	    if (term_metrics.enabled) {
+    	        TOKENS.add(tokens);
+    	        STOP_WORDS.add(stopWordsFound);
+    	        tokens = stopWordsFound = 0;
+    	    }
+    	    super.terminate();
     	}
     }
     
     
     /******************************************************************************
     Class:          wordFrequencyManager
-    Description:    An abstraction that maintains the frequency of all non-stop
-                    words
+    Description:    An abstraction that maintains the frequency of the non-stop
+                    words of its shard
     Data Fields:    data_storage_manager  - The abstraction associated to the
                                             dataStorageManager class
-                    wordFrequencies  - A map to contain the list of non-stop words
-                                       and their frequencies
+                    wordFrequencies  - A counter to contain the list of non-stop
+                                       words and their frequencies
+                    shard  - The shard of the words counted by this abstraction
+                    replicas  - The number of stopWordManagers, each of which
+                                sends on the request for the results
+                    requests  - The number of requests for the results received
+                    reduce  - Combines the results of every shard
+                    countMetrics  - Records the counting of each batch
     Functions:      dispatch  - Reads the contents of the message and delegates
                                 what to do based on the contents
                     incrementCount  - Keeps track of the non-stop words within the
-                                      Map and increases frequency of each word when
-                                      needed
-                    top25  - Prints out the top 25 most frequent terms
-                    run  - Sends messages from the queue with the necessary
-                           information in order trigger the processWords function
+                                      counter and increases frequency of each word
+                                      when needed, then releases the batch
+                    top25  - Once every stopWordManager has asked for them,
+                             hands the most frequent terms of the shard and the
+                             counts over to be combined with the other shards
+                    run  - Adds the counts of the snapshots and sends messages from
+                           the queue with the necessary information in order
+                           trigger the processWords function (the first shard
+                           only)
+                    terminate  - Hands the metrics of the counting over and
+                                 stops the object
     ******************************************************************************/
     static class wordFrequencyManager extends activeWFObject {
         
         
         //Instance variables
         private dataStorageManager data_storage_manager;
-    	private Map<String, Integer> wordFrequencies = new HashMap<String, Integer>();
+    	private term_counter wordFrequencies = term_counter.create(counterKind);
+    	private final int shard;
+    	private final int replicas;
+    	private int requests;
+    	private final topReduce reduce;
+    	private final term_metrics.recorder countMetrics = COUNT_STAGE.recorder();
+    	
     	
+    	public wordFrequencyManager(int shard, int replicas, topReduce reduce) {
+    	    this.shard = shard;
+    	    this.replicas = replicas;
+    	    this.reduce = reduce;
+    	}
     	
     	@Override
-    	public void dispatch(List<Object> message) {
-    		if (message.get(0).equals("word"))
-    			incrementCount(message.subList(1, message.size()));
-    		else if (message.get(0).equals("top25"))
-    			top25(message.subList(1, message.size()));
-    		else if (message.get(0).equals("run"))
-    		    run(message.subList(1, message.size()));
+    	public void dispatch(actorMessage message) {
+    		if (message instanceof wordMessage)
+    			incrementCount((wordMessage) message);
+    		else if (message instanceof top25Message)
+    			top25((top25Message) message);
+    		else if (message instanceof runMessage)
+    		    run((runMessage) message);
     		    
     	}
     	
-    	public void incrementCount(List<Object> message) {
-    		String word = (String) message.get(0);
-    		if (wordFrequencies.containsKey(word))
-    			wordFrequencies.put(word, wordFrequencies.get(word) + 1);
-    		else
-    			wordFrequencies.put(word, 1);
+    	public void incrementCount(wordMessage message) {
+    	    long begin = countMetrics.begin();
+    	    for (int i = 0; i < message.count; i++)
+    	        wordFrequencies.add(message.words[i], 1);
+    	    countMetrics.end(begin, message.count, message.count);
+    	    data_storage_manager.release();
     	}
     	
-    	public void top25(List<Object> message) {
-    	    List<Entry<String, Integer>> sortedFrequencies = new ArrayList<Entry<String, Integer>>();
-    	    sortedFrequencies.addAll(wordFrequencies.entrySet());
-    	    Collections.sort(sortedFrequencies, (word1, word2) -> word2.getValue() - word1.getValue());
+    	public void top25(top25Message message) {
     	    
-    	    for (int i = 0; i < 25; i++) {
-    	    	Entry<String, Integer> p = sortedFrequencies.get(i);
-    	    	System.out.println(p.getKey() + "  -  " + p.getValue());
-    	    }
     	    
-    	    send(data_storage_manager,  new ArrayList<Object>(Arrays.asList("die")));
-    	    stopFlag = true;
+    	    //Words from a stopWordManager may still be on their way until each of them has sent the request on
+    	    if (++requests < replicas)
+    	        return;
+    	    
+    	    long begin = TOP_STAGE.begin();
+    	    top_k top = top_k.of(wordFrequencies, reduce.k);
+    	    TOP_STAGE.end(begin, wordFrequencies.size(), Math.min(reduce.k, wordFrequencies.size()));
+    	    
+    	    if (reduce.add(top, wordFrequencies))
+    	        send(data_storage_manager, dieMessage.INSTANCE);
+    	    terminate();
     	}
     	
-    	public void run(List<Object> message) {
-    		data_storage_manager = (dataStorageManager) message.get(0);
-    		send(data_storage_manager, new ArrayList<Object>(Arrays.asList("send_word_freqs", this)));
+    	@Override
+    	public void terminate() {
+    	    countMetrics.close();
+    	    super.terminate();
     	}
+    	
+    	public void run(runMessage message) {
+    	    for (term_counter counts : message.snapshots)
+    	        wordFrequencies.addAll(counts, shard, reduce.shards);
+    	    
+    		data_storage_manager = message.data_storage_manager;
+    		if (shard == 0)
+    		    send(data_storage_manager, new sendWordFreqsMessage(this));
+    	}
+    }
+    
+    
+    /******************************************************************************
+    Class:          topReduce
+    Description:    Combines the most frequent terms of each wordFrequencyManager.
+                    Since every term is counted by a single shard, the most
+                    frequent terms overall are among the most frequent terms of
+                    the shards
+    Data Fields:    k  - The number of terms kept
+                    shards  - The number of wordFrequencyManagers
+                    top  - The most frequent terms of the shards combined so far
+                    counters  - The counters of the shards combined so far
+                    output  - Receives the results once every shard is combined
+    Functions:      add  - Combines the results of a shard and hands the results
+                           over to the output once every shard is combined
+    ******************************************************************************/
+    static class topReduce {
+        
+        
+        //Instance variables
+        final int k;
+        final int shards;
+        private final top_k top;
+        private final List<term_counter> counters = new ArrayList<term_counter>();
+        private final BiConsumer<top_k, List<term_counter>> output;
+        
+        
+        topReduce(int k, int shards, BiConsumer<top_k, List<term_counter>> output) {
+            this.k = k;
+            this.shards = shards;
+            this.top = new top_k(k);
+            this.output = output;
+        }
+        
+        public boolean add(top_k shardTop, term_counter counts) {
+            synchronized (this) {
+                top.addAll(shardTop);
+                counters.add(counts);
+                if (counters.size() < shards)
+                    return false;
+            }
+            output.accept(top, counters);
+            return true;
+        }
+    }
+	
+	
+    /******************************************************************************
+    Function Name:  loadStopWords
+    Purpose:        This function reads the list of stop words the first time it is
+                    needed (the built-in copy of stop_words.txt unless another
+                    list is given); every later count shares the same filter
+    Result:         The filter compiled from the list of stop words
+    ******************************************************************************/
+    public static synchronized stop_word_filter loadStopWords() throws IOException {
+        if (stopWordFilter == null)
+            stopWordFilter = stopWordsPath == null ? stop_word_filter.defaults() : stop_word_filter.load(stopWordsPath);
+        return stopWordFilter;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  startPipeline
+    Purpose:        This function creates the active objects of a count and sends
+                    them their first messages: the dataStorageManager, the
+                    stopWordManagers it sends the batches to in turn and the
+                    wordFrequencyManagers owning a hash shard of the words
+                    each. Each count has its own active objects, so counts
+                    running at the same time never share their words or
+                    frequencies
+    Input:          path  - The path to the text file (null when the contents
+                            are given)
+                    contents  - The bytes of the text (null to read the file)
+                    snapshots  - The counts of the snapshots, added first
+                    k  - The number of most frequent terms kept
+                    output  - Receives the most frequent terms and the counters
+                              of the shards once every word is counted
+                    failed  - Receives the first error of the count, once
+                              every active object of the count is told to stop
+    Result:         The active objects of the count, which stop once the results
+                    have been handed to the output (or once one of them fails)
+    ******************************************************************************/
+    public static List<activeWFObject> startPipeline(String path, byte[] contents, List<term_counter> snapshots, int k,
+            BiConsumer<top_k, List<term_counter>> output, Consumer<Exception> failed) {
+        List<activeWFObject> pipeline = new ArrayList<activeWFObject>();
+        topReduce reduce = new topReduce(k, frequencyManagers, output);
+        
+        wordFrequencyManager[] word_frequency_managers = new wordFrequencyManager[frequencyManagers];
+        for (int shard = 0; shard < frequencyManagers; shard++)
+            word_frequency_managers[shard] = new wordFrequencyManager(shard, stopWordManagers, reduce);
+		
+		stopWordManager[] stop_word_managers = new stopWordManager[stopWordManagers];
+		for (int i = 0; i < stopWordManagers; i++)
+		    stop_word_managers[i] = new stopWordManager();
+		
+		dataStorageManager data_storage_manager = new dataStorageManager();
+		
+		pipeline.addAll(Arrays.asList(word_frequency_managers));
+		pipeline.addAll(Arrays.asList(stop_word_managers));
+		pipeline.add(data_storage_manager);
+		
+		
+		//Every object is told where its errors go before it is sent its first message
+		AtomicBoolean failing = new AtomicBoolean();
+		for (activeWFObject active_object : pipeline) {
+		    active_object.onFailure(e -> {
+		        if (failing.compareAndSet(false, true)) {
+		            cancel(pipeline);
+		            failed.accept(e);
+		        }
+		    });
+		}
+		
+		for (stopWordManager stop_word_manager : stop_word_managers)
+		    send(stop_word_manager, new stopWordInitMessage(word_frequency_managers));
+		send(data_storage_manager, new storageInitMessage(path, contents, stop_word_managers, frequencyManagers));
+		
+		
+		//The first shard starts the words, so it is sent its message last, after every other shard has one queued
+		for (int shard = frequencyManagers - 1; shard >= 0; shard--)
+		    send(word_frequency_managers[shard], new runMessage(data_storage_manager, snapshots));
+		return pipeline;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  cancel
+    Purpose:        This function stops every active object of a count, such as
+                    when one of them has failed
+    Input:          pipeline  - The active objects of the count (nothing is done if
+                                the count was not started)
+    Result:         Each active object stops once it takes the message, and the
+                    later messages of the count are dropped
+    ******************************************************************************/
+    public static void cancel(List<activeWFObject> pipeline) {
+        if (pipeline == null)
+            return;
+        for (activeWFObject active_object : pipeline)
+            send(active_object, cancelMessage.INSTANCE);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  report
+    Purpose:        This function saves a snapshot of the counts and exports them if
+                    requested and prints out the top 25 most frequent terms (unless specified),
+                    along with their error bounds when the counts are approximate
+    Input:          top  - The most frequent terms
+                    counters  - The frequency of each non-stop word, one counter
+                                per shard
+    Result:         Displays the results into the terminal
+    ******************************************************************************/
+    public static void report(top_k top, List<term_counter> counters) {
+        try {
+            if (saveSnapshot != null)
+                term_snapshot.write(saveSnapshot, counters);
+            if (exportDirectory != null)
+                term_export.write(exportDirectory, counters);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        
+        top.print();
+        if ("space-saving".equals(counterKind))
+            System.err.println(space_saving_counter.describe(counters, top));
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  serve
+    Purpose:        This function keeps the program running as a local HTTP
+                    service, so the scheduler, the stop words and the compiled
+                    code stay warm between counts. At most maxRequests counts
+                    run at the same time and as many more wait in line; once
+                    the line is full the server stops accepting connections
+                    until a count finishes, so a flood of requests cannot grow
+                    the mailboxes without limit
+    Input:          port  - The port to listen on (0 picks a free port)
+    Result:         Answers every POST to /count with the top terms of its body
+    ******************************************************************************/
+    public static void serve(int port) throws IOException {
+        loadStopWords();
+        
+        ThreadPoolExecutor handlers = new ThreadPoolExecutor(maxRequests, maxRequests, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(maxRequests), (task, pool) -> {
+                    try {
+                        pool.getQueue().put(task);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+        
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/count", actors_style::countRequest);
+        server.setExecutor(handlers);
+        server.start();
+        System.out.println("Listening on http://localhost:" + server.getAddress().getPort() + "/count");
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  countRequest
+    Purpose:        This function counts the terms of the body of a request on its
+                    own active objects and answers with the top terms
+    Input:          exchange  - The request, which may ask for another number of
+                                terms with a top=K query parameter
+    Result:         Answers with one "term  -  count" line per term, or with an
+                    error status when the request cannot be counted (the
+                    active objects of a count that times out are stopped)
+    ******************************************************************************/
+    private static void countRequest(HttpExchange exchange) throws IOException {
+        List<activeWFObject> pipeline = null;
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, 405, "Send the text to count with POST\n");
+                return;
+            }
+            
+            int top = topCount;
+            String topParameter = queryParameter(exchange.getRequestURI(), "top");
+            if (topParameter != null) {
+                try {
+                    top = Integer.parseInt(topParameter);
+                }
+                catch (NumberFormatException e) {
+                    respond(exchange, 400, "top must be a number\n");
+                    return;
+                }
+            }
+            
+            byte[] contents = exchange.getRequestBody().readNBytes(maxRequestBytes + 1);
+            if (contents.length > maxRequestBytes) {
+                respond(exchange, 413, "The text is larger than " + maxRequestBytes + " bytes\n");
+                return;
+            }
+            
+            CompletableFuture<top_k> result = new CompletableFuture<top_k>();
+            pipeline = startPipeline(null, contents, Collections.<term_counter>emptyList(), top, (terms, counters) -> result.complete(terms),
+                    result::completeExceptionally);
+            respond(exchange, 200, result.get(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS).format());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(pipeline);
+            respond(exchange, 503, "The server is shutting down\n");
+        }
+        catch (TimeoutException e) {
+            
+            
+            //The active objects of a count that is given up on are stopped, so they no longer take turns from the other counts
+            cancel(pipeline);
+            respond(exchange, 500, "The text could not be counted within " + REQUEST_TIMEOUT_SECONDS + " seconds\n");
+        }
+        catch (ExecutionException e) {
+            respond(exchange, 500, "The text could not be counted\n");
+        }
+        finally {
+            exchange.close();
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  queryParameter
+    Purpose:        This function finds a parameter within the query of a request,
+                    wherever it is among the other parameters
+    Input:          uri  - The URI of the request
+                    name  - The name of the parameter
+    Result:         The decoded value of the first parameter with the name ("" if
+                    it has no value), or null if the query does not have it
+    ******************************************************************************/
+    private static String queryParameter(URI uri, String name) {
+        String query = uri.getRawQuery();
+        if (query == null)
+            return null;
+        
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            String key = URLDecoder.decode(equals < 0 ? parameter : parameter.substring(0, equals), StandardCharsets.UTF_8);
+            if (key.equals(name))
+                return equals < 0 ? "" : URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8);
+        }
+        return null;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  respond
+    Purpose:        This function sends the answer to a request
+    Input:          exchange  - The request being answered
+                    status  - The HTTP status of the answer
+                    body  - The text of the answer
+    Result:         The answer is sent to the client
+    ******************************************************************************/
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
     }
 	
 	
@@ -260,28 +1133,155 @@ public class actors_style {
     Purpose:        This function executes our term frequency program by calling
                     our active objects defined above and initiating their messages
                     to each other
-    Input:          args  - An array of arguments
+    Input:          args  - An array of arguments (the path to the text file and,
+                            optionally, --batch=N for the number of words sent
+                            per message, --top=K for the number of words
+                            printed, --stop-words=PATH for the list of stop
+                            words, --stream to read the file in chunks
+                            while the words are sent, --counter=hashmap to
+                            count the words within a HashMap instead of a
+                            term_count_table (or --counter=space-saving to
+                            approximate the counts within
+                            --sketch-capacity=N terms, or as many as
+                            --sketch-error=E needs for counts at most E
+                            times the number of words too high),
+                            --load-snapshot=PATH
+                            (repeatable) to start from saved counts,
+                            --save-snapshot=PATH to save the final counts,
+                            --export=DIR to export every count with term
+                            IDs and
+                            --mailbox-capacity=N for the number of batches
+                            waiting to be counted before the words stop
+                            being read (0 for no limit), --queue-stats to
+                            display the depth of each mailbox,
+                            --stop-word-managers=N and
+                            --frequency-managers=M for the number of
+                            stopWordManagers and wordFrequencyManagers,
+                            --metrics to time each stage (or
+                            --metrics=PATH to write the metrics as JSON),
+                            --unicode to read words in any script (with
+                            --nfc to also compose their accents),
+                            --serve=PORT to run as a local HTTP service with
+                            --max-requests=N counts at a time of at most
+                            --max-request-bytes=N bytes each)
     Result:         Counts the frequency of each non-stop word and displays the
                     results into the terminal
     ******************************************************************************/
     public static void main(String args[]) {
-        wordFrequencyManager word_frequency_manager = new wordFrequencyManager();
-		
-		stopWordManager stop_word_manager = new stopWordManager();
-		send(stop_word_manager, new ArrayList<Object>(Arrays.asList("init", word_frequency_manager)));
-		
-		dataStorageManager data_storage_manager = new dataStorageManager();
-		send(data_storage_manager, new ArrayList<Object>(Arrays.asList("init", args[0], stop_word_manager)));
-		
-		send(word_frequency_manager, new ArrayList<Object>(Arrays.asList("run", data_storage_manager)));
-		
+        String path = null;
+        for (String arg : args) {
+            if (arg.equals("--stream"))
+                stream = true;
+            else if (arg.startsWith("--load-snapshot="))
+                loadSnapshots.add(Paths.get(arg.substring("--load-snapshot=".length())));
+            else if (arg.startsWith("--save-snapshot="))
+                saveSnapshot = Paths.get(arg.substring("--save-snapshot=".length()));
+            else if (arg.startsWith("--export="))
+                exportDirectory = Paths.get(arg.substring("--export=".length()));
+            else if (arg.startsWith("--stop-words="))
+                stopWordsPath = arg.substring("--stop-words=".length());
+            else if (arg.startsWith("--top="))
+                topCount = Integer.parseInt(arg.substring("--top=".length()));
+            else if (arg.startsWith("--counter="))
+                counterKind = arg.substring("--counter=".length());
+            else if (arg.startsWith("--sketch-capacity="))
+                space_saving_counter.defaultCapacity = space_saving_counter.capacity(Integer.parseInt(arg.substring("--sketch-capacity=".length())));
+            else if (arg.startsWith("--sketch-error="))
+                space_saving_counter.defaultCapacity = space_saving_counter.capacityFor(Double.parseDouble(arg.substring("--sketch-error=".length())));
+            else if (arg.startsWith("--serve="))
+                servePort = Integer.parseInt(arg.substring("--serve=".length()));
+            else if (arg.startsWith("--max-requests="))
+                maxRequests = Math.max(1, Integer.parseInt(arg.substring("--max-requests=".length())));
+            else if (arg.startsWith("--max-request-bytes="))
+                maxRequestBytes = Integer.parseInt(arg.substring("--max-request-bytes=".length()));
+            else if (arg.startsWith("--mailbox-capacity="))
+                mailboxCapacity = Math.max(0, Integer.parseInt(arg.substring("--mailbox-capacity=".length())));
+            else if (arg.equals("--unicode"))
+                unicode = true;
+            else if (arg.equals("--nfc"))
+                unicode = nfc = true;
+            else if (arg.equals("--queue-stats"))
+                queueStats = true;
+            else if (arg.equals("--metrics"))
+                term_metrics.enable(null);
+            else if (arg.startsWith("--metrics="))
+                term_metrics.enable(arg.substring("--metrics=".length()));
+            else if (arg.startsWith("--stop-word-managers="))
+                stopWordManagers = Math.max(1, Integer.parseInt(arg.substring("--stop-word-managers=".length())));
+            else if (arg.startsWith("--frequency-managers="))
+                frequencyManagers = Math.max(1, Integer.parseInt(arg.substring("--frequency-managers=".length())));
+            else if (arg.startsWith("--batch="))
+                batchSize = Math.max(1, Integer.parseInt(arg.substring("--batch=".length())));
+            else
+                path = arg;
+        }
+        
+        
+        //Words outside of ASCII are only printed properly in UTF-8, whatever the default charset of the platform
+        if (unicode)
+            System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.out), true, StandardCharsets.UTF_8));
+        
+        
+        //The service keeps running on the threads of the HTTP server once main returns
+        if (servePort >= 0) {
+            try {
+                serve(servePort);
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                scheduler.shutdown();
+            }
+            return;
+        }
+        
+        
+        //A count without a text file fails at once, as there would be nothing for the words to be read from
+        if (path == null) {
+            System.err.println("No text file was given");
+            scheduler.shutdown();
+            System.exit(1);
+        }
+        
+        
+        //A snapshot that cannot be loaded stops the run, as --save-snapshot would otherwise replace it with the new counts alone
+        List<term_counter> snapshots = new ArrayList<term_counter>();
+        for (Path snapshot : loadSnapshots) {
+            try {
+                term_counter counts = term_counter.create(counterKind);
+                term_snapshot.read(snapshot, counts);
+                snapshots.add(counts);
+            }
+            catch (IOException e) {
+                System.err.println("Could not load the snapshot " + snapshot + ": " + e);
+                scheduler.shutdown();
+                System.exit(1);
+            }
+        }
+        
+        AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        List<activeWFObject> pipeline = startPipeline(path, null, snapshots, topCount, actors_style::report, failure::set);
 		try {
-		    word_frequency_manager.join();
-			stop_word_manager.join();
-			data_storage_manager.join();
+		    for (activeWFObject active_object : pipeline)
+		        active_object.join();
+		    
+		    if (failure.get() != null) {
+		        System.err.println("Could not count " + path + ": " + failure.get());
+		        scheduler.shutdown();
+		        System.exit(1);
+		    }
+		    
+		    if (queueStats) {
+		        for (activeWFObject active_object : pipeline)
+		            System.err.println(active_object.queueStats());
+		    }
+		    for (activeWFObject active_object : pipeline)
+		        active_object.recordQueueDepth();
         }
         catch (InterruptedException e) {
             e.printStackTrace();
 		}
+        finally {
+            scheduler.shutdown();
+        }
     }
 }
\ No newline at end of file
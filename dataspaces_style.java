@@ -8,37 +8,95 @@ Description:  This term frequency program is to read a text file.
                  1. Implement the program using the Dataspaces style
                  2. When implementing the phase of the program where the
                     merging of word frequencies occur, do this concurrently
-                    by 5 threads
+                    by several threads (one per core unless specified)
 ******************************************************************************/
 
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.Map.Entry;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class dataspaces_style {
     
     
     //Instance variables
-    private static ConcurrentLinkedQueue<String> wordSpace = new ConcurrentLinkedQueue<String>();
-    private static ConcurrentLinkedQueue<Map<String, Integer>> frequencySpace = new ConcurrentLinkedQueue<Map<String, Integer>>();
-    private static Set<String> stopWords = new HashSet<String>();
-    private static Map<String, Integer> wordFrequencies = new HashMap<String, Integer>();
+    private static final int STREAM_CAPACITY = 64 * 1024;
+    private static final String END_OF_WORDS = new String("");
+    private static final int RANGES_PER_WORKER = 4;
+    private static final long MAX_RANGE_SIZE = 1L << 30;
+    private static final long SPLIT_SIZE = 16L << 20;
+    private static long smallInput = 256 * 1024;
+    private static BlockingQueue<String> wordSpace = new LinkedBlockingQueue<String>();
+    private static ConcurrentLinkedQueue<long[]> rangeSpace = new ConcurrentLinkedQueue<long[]>();
+    private static FileChannel fileChannel;
+    private static ConcurrentLinkedQueue<term_counter> frequencySpace = new ConcurrentLinkedQueue<term_counter>();
+    private static stop_word_filter stopWords;
+    private static String stopWordsPath = null;
+    private static List<term_counter> wordFrequencies = new ArrayList<term_counter>();
+    private static List<top_k> topFrequencies = new ArrayList<top_k>();
+    private static int topCount = 25;
+    private static String counterKind = "table";
+    private static boolean unicode = false;
+    private static boolean nfc = false;
+    private static int[] gramSizes = new int[0];
+    private static ngram_counter[] readerGrams = new ngram_counter[0];
+    private static ConcurrentLinkedQueue<ngram_counter> gramSpace = new ConcurrentLinkedQueue<ngram_counter>();
+    private static ConcurrentSkipListMap<Long, String[][]> rangeEdges = new ConcurrentSkipListMap<Long, String[][]>();
+    private static int windowSize = 0;
+    private static int windowTop = 5;
+    private static term_window termWindow = null;
+    private static final term_metrics.stage READ_STAGE = term_metrics.stage("read");
+    private static final term_metrics.stage TOKENIZE_STAGE = term_metrics.stage("tokenize");
+    private static final term_metrics.stage COUNT_STAGE = term_metrics.stage("count");
+    private static final term_metrics.stage MERGE_STAGE = term_metrics.stage("merge");
+    private static final term_metrics.stage TOP_STAGE = term_metrics.stage("top");
     
     
     /******************************************************************************
     Class:          Worker
     Description:    An abstraction that is used to process the frequencies of terms
                     (this will be done through 5 different threads later on)
-    Functions:      run  - Executes the processWords function
+    Functions:      run  - Executes the processRanges function when the file is
+                           memory-mapped and the processWords function otherwise,
+                           stopping the program if the worker fails
     ******************************************************************************/
     static class Worker extends Thread {
     	public void run() {
-    		processWords();
+    	    try {
+    	        if (fileChannel != null)
+    	            processRanges();
+    	        else
+    	            processWords();
+    	    }
+    	    catch (RuntimeException e) {
+    	        
+    	        
+    	        //The terms of a failed worker would never be counted (and the reader could wait on the queue forever), so the run stops
+    	        System.err.println("A worker failed while counting the terms: " + e);
+    	        e.printStackTrace();
+    	        System.exit(1);
+    	    }
     	}
     }
     
@@ -46,136 +104,734 @@ public class dataspaces_style {
     /******************************************************************************
     Class:          Frequency
     Description:    An abstraction that is used to merge the frequencies of terms
-                    (this will be done through 5 different threads later on)
-    Data Fields:    lowerBound  - Indicates the lower bound of which terms to merge
-                                  based on the first character of the term
-                    upperBound  - Indicates the upper bound of which terms to merge
-                                  based on the first character of the term
+                    (this will be done through several threads later on, each one
+                    owning the terms of a single shard)
+    Data Fields:    shard  - Indicates which shard of the terms to merge
+                    shards  - Indicates the total number of shards
+                    result  - The merged frequencies of the terms of the shard
+                    top  - The most frequent terms of the shard
     Functions:      Frequency  - Constructor that defines the abstraction
-                    run  - Executes the mergeFrequencies function
+                    run  - Executes the mergeFrequencies function and selects
+                           the most frequent terms of the shard
     ******************************************************************************/
     static class Frequency extends Thread {
         
         
         //Instance variables
-        private char lowerBound;
-        private char upperBound;
+        private int shard;
+        private int shards;
+        private term_counter result;
+        private top_k top;
         
         
-        public Frequency(char lower, char upper) {
-            lowerBound = lower;
-            upperBound = upper;
+        public Frequency(int shard, int shards) {
+            this.shard = shard;
+            this.shards = shards;
         }
         
         public void run() {
-    		mergeFrequencies(lowerBound, upperBound);
+    		result = mergeFrequencies(shard, shards);
+    		
+    		long begin = TOP_STAGE.begin();
+    		top = top_k.of(result, topCount);
+    		TOP_STAGE.end(begin, result.size(), Math.min(topCount, result.size()));
     	}
     }
     
     
+    /******************************************************************************
+    Class:          FileCount
+    Description:    An abstraction that is used to count the terms of one file of
+                    a corpus on a ForkJoinPool
+    Data Fields:    path  - The path to the file
+    Functions:      FileCount  - Constructor that defines the abstraction
+                    compute  - Maps the file and counts the terms of all of its
+                               ranges
+    ******************************************************************************/
+    @SuppressWarnings("serial")
+    static class FileCount extends RecursiveTask<term_counter> {
+        
+        
+        //Instance variables
+        private final Path path;
+        
+        
+        public FileCount(Path path) {
+            this.path = path;
+        }
+        
+        protected term_counter compute() {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return new RangeCount(channel, 0, channel.size()).compute();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("Could not count " + path, e);
+            }
+            catch (UncheckedIOException e) {
+                throw new UncheckedIOException("Could not count " + path, e.getCause());
+            }
+        }
+    }
+    
+    
+    /******************************************************************************
+    Class:          RangeCount
+    Description:    An abstraction that is used to count the terms of a byte range
+                    of a file on a ForkJoinPool. Ranges larger than the split
+                    size are split in two on a word boundary, so that idle
+                    threads of the pool can steal one of the halves
+    Data Fields:    channel  - The channel of the file
+                    start  - The position of the first byte of the range
+                    end  - The position after the last byte of the range
+    Functions:      RangeCount  - Constructor that defines the abstraction
+                    compute  - Counts the terms of the range, splitting it first
+                               if it is too large
+    ******************************************************************************/
+    @SuppressWarnings("serial")
+    static class RangeCount extends RecursiveTask<term_counter> {
+        
+        
+        //Instance variables
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        
+        
+        public RangeCount(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+        
+        protected term_counter compute() {
+            term_counter word_frequencies = term_counter.create(counterKind);
+            
+            try {
+                if (end - start > SPLIT_SIZE) {
+                    long middle = nextBoundary(channel, start + (end - start) / 2, end);
+                    if (middle < end) {
+                        RangeCount right = new RangeCount(channel, middle, end);
+                        right.fork();
+                        word_frequencies = new RangeCount(channel, start, middle).compute();
+                        word_frequencies.addAll(right.join(), 0, 1);
+                        return word_frequencies;
+                    }
+                }
+                
+                long begin = COUNT_STAGE.begin();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                term_counter counter = word_frequencies;
+                long[] tally = new long[2];
+                new text_tokenizer(unicode, nfc).tokenize(buffer, (bytes, offset, length) -> {
+                    tally[0]++;
+                    if (!stopWords.contains(bytes, offset, length)) {
+                        tally[1]++;
+                        counter.add(bytes, offset, length, 1);
+                    }
+                });
+                recordCount(begin, tally[0], tally[1]);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            
+            return word_frequencies;
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  resolveInputs
+    Purpose:        This function turns the inputs given on the command line into
+                    the list of files to count. An input can be a file, a
+                    directory (every file within it), a glob such as
+                    logs/*.txt, or @list.txt for a file listing one path per line
+    Input:          inputs  - The inputs given on the command line
+    Result:         The files to count, in a stable order
+    ******************************************************************************/
+    public static List<Path> resolveInputs(List<String> inputs) throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        
+        for (String input : inputs) {
+            if (input.startsWith("@")) {
+                for (String line : Files.readAllLines(Paths.get(input.substring(1)))) {
+                    if (!line.trim().isEmpty())
+                        files.add(Paths.get(line.trim()));
+                }
+            }
+            else if (Files.isDirectory(Paths.get(input))) {
+                try (Stream<Path> walk = Files.walk(Paths.get(input))) {
+                    files.addAll(walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList()));
+                }
+            }
+            else if (input.matches(".*[*?\\[{].*")) {
+                
+                
+                //The glob is matched against the paths found under the folder before its first wildcard
+                int wildcard = input.replaceAll("[*?\\[{].*", "").lastIndexOf('/') + 1;
+                Path base = Paths.get(wildcard == 0 ? "." : input.substring(0, wildcard));
+                PathMatcher matcher = base.getFileSystem().getPathMatcher("glob:" + input.substring(wildcard));
+                try (Stream<Path> walk = Files.walk(base)) {
+                    files.addAll(walk.filter(Files::isRegularFile)
+                            .filter(file -> matcher.matches(base.relativize(file)))
+                            .sorted().collect(Collectors.toList()));
+                }
+            }
+            else {
+                files.add(Paths.get(input));
+            }
+        }
+        
+        return files;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  countCorpus
+    Purpose:        This function counts every file of a corpus on a ForkJoinPool,
+                    where idle threads steal files (or halves of large files)
+                    from busy ones. The frequencies of each file are folded into
+                    a total as soon as the file is counted, and the total is
+                    placed into the queue merged later on, the same as the
+                    frequencies of a worker
+    Input:          files  - The files of the corpus
+                    threads  - The number of threads of the pool
+                    perFile  - Whether to print the top terms of each file
+    Result:         The frequencies of the corpus are placed into a queue
+    ******************************************************************************/
+    public static void countCorpus(List<Path> files, int threads, boolean perFile) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Deque<ForkJoinTask<term_counter>> tasks = new ArrayDeque<ForkJoinTask<term_counter>>();
+        term_counter total = null;
+        int submitted = 0;
+        
+        try {
+            
+            
+            //Only a few files are counted ahead of the one being folded, so the frequencies held at once do not grow with the number of files
+            for (int i = 0; i < files.size(); i++) {
+                while (submitted < files.size() && submitted < i + 2 * threads)
+                    tasks.add(pool.submit(new FileCount(files.get(submitted++))));
+                
+                term_counter word_frequencies = tasks.poll().join();
+                if (perFile) {
+                    System.out.println("==> " + files.get(i) + " <==");
+                    top_k.of(word_frequencies, topCount).print();
+                }
+                if (total == null)
+                    total = word_frequencies;
+                else
+                    total.addAll(word_frequencies, 0, 1);
+            }
+        }
+        catch (UncheckedIOException e) {
+            
+            
+            //A file that cannot be counted stops the run, as the total would otherwise be printed without it
+            System.err.println(e.getMessage() + ": " + e.getCause());
+            System.exit(1);
+        }
+        finally {
+            pool.shutdown();
+        }
+        
+        if (total != null)
+            frequencySpace.offer(total);
+        if (perFile)
+            System.out.println("==> total <==");
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  loadSnapshot
+    Purpose:        This function loads the counts saved by an earlier run (or by
+                    another machine) and places them into the queue merged later
+                    on, the same as the frequencies of a worker
+    Input:          path  - The path of the snapshot
+    Result:         The counts of the snapshot are placed into a queue
+    ******************************************************************************/
+    public static void loadSnapshot(Path path) throws IOException {
+        term_counter word_frequencies = term_counter.create(counterKind);
+        term_snapshot.read(path, word_frequencies);
+        frequencySpace.offer(word_frequencies);
+    }
+    
+    
     /******************************************************************************
     Function Name:  readFile
-    Purpose:        This function reads the contents of a text file, updates the
+    Purpose:        This function reads the contents of a text file, tokenizes the
                     text so that it is all lowercase, and places these words into
                     a queue
     Input:          path  - The path to the text file specified
     Result:         Parses the text file and places the terms into a queue
     ******************************************************************************/
     public static void readFile(String path) throws IOException {
-        String contents = new String(Files.readAllBytes(Paths.get(path))).toLowerCase();
-    	contents = Pattern.compile("[^a-zA-Z]").matcher(contents).replaceAll(" ");
-    	String[] words = contents.split(" ");
-    	
-    	for (int i = 0; i < words.length; i++) {
-    	    
-    	    
-    	   //Covers the edge cases such as the single 's' and whitespace characters
-    	   if (words[i].length() < 2)
-    	       continue;
-    	   
-    	   wordSpace.offer(words[i]);
-    	}
+        long begin = READ_STAGE.begin();
+        byte[] contents = Files.readAllBytes(Paths.get(path));
+        READ_STAGE.end(begin, contents.length, contents.length);
+        
+        begin = TOKENIZE_STAGE.begin();
+        text_tokenizer tokenizer = new text_tokenizer(unicode, nfc);
+        long[] words = new long[1];
+    	tokenizer.tokenize(contents, 0, contents.length, word -> putWord(word, words));
+    	tokenizer.finish(word -> putWord(word, words));
+    	TOKENIZE_STAGE.end(begin, contents.length, words[0]);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  streamFile
+    Purpose:        This function reads the text file through a fixed-size buffer
+                    and places each term into the queue as soon as it is read,
+                    so that the workers count the terms while the file is still
+                    being read and the whole file is never held in memory (the
+                    queue is bounded when streaming)
+    Input:          path  - The path to the text file specified
+    Result:         Parses the text file and places the terms into a queue
+    ******************************************************************************/
+    public static void streamFile(String path) throws IOException {
+        long begin = TOKENIZE_STAGE.begin();
+        long[] words = new long[1];
+        new text_tokenizer(unicode, nfc).tokenize(path, word -> putWord(word, words));
+        TOKENIZE_STAGE.end(begin, Files.size(Paths.get(path)), words[0]);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  putWord
+    Purpose:        This function places a term into the queue, waiting for room
+                    if the queue is bounded and full
+    Input:          word  - The term to place into the queue
+                    words  - The number of terms placed so far (the depth of
+                             the queue is sampled every 64K terms)
+    Result:         Places the term into the queue
+    ******************************************************************************/
+    private static void putWord(String word, long[] words) {
+        if ((++words[0] & 0xFFFF) == 0)
+            term_metrics.gaugeMax("word_space.max_depth", wordSpace.size());
+        putWord(word);
+        if (readerGrams.length > 0 || termWindow != null)
+            followWord(word);
+    }
+    
+    private static void putWord(String word) {
+        try {
+            wordSpace.put(word);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  followWord
+    Purpose:        This function feeds a term read in order to the n-gram
+                    counters and the windows of the reading thread (the workers
+                    take the terms out of order, so the sequence of the terms is
+                    only known here)
+    Input:          word  - The term read
+    Result:         The non-stop term is counted within its n-grams and its window
+    ******************************************************************************/
+    private static void followWord(String word) {
+        if (stopWords.contains(word))
+            return;
+        for (ngram_counter grams : readerGrams)
+            grams.next(word);
+        if (termWindow != null)
+            termWindow.next(word);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  newGrams
+    Purpose:        This function creates one n-gram counter for each size of
+                    n-gram requested
+    Result:         The new, empty counters
+    ******************************************************************************/
+    private static ngram_counter[] newGrams() {
+        ngram_counter[] grams = new ngram_counter[gramSizes.length];
+        for (int i = 0; i < grams.length; i++)
+            grams[i] = new ngram_counter(gramSizes[i]);
+        return grams;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  recordEdges
+    Purpose:        This function keeps the first and the last terms of a range
+                    counted by a worker and starts the counters over, so that the
+                    n-grams spanning two ranges can be counted once every range
+                    is done
+    Input:          start  - The position of the first byte of the range
+                    grams  - The n-gram counters of the worker
+    Result:         The edges of the range are kept
+    ******************************************************************************/
+    private static void recordEdges(long start, ngram_counter[] grams) {
+        String[][] edges = new String[2 * grams.length][];
+        for (int i = 0; i < grams.length; i++) {
+            edges[2 * i] = grams[i].head();
+            edges[2 * i + 1] = grams[i].tail();
+            grams[i].restart();
+        }
+        rangeEdges.put(start, edges);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  stitchRanges
+    Purpose:        This function counts the n-grams spanning two or more ranges by
+                    going through the edges of the ranges in the order of the file
+    Result:         A counter of the n-grams spanning ranges is placed into the
+                    queue of n-gram counters
+    ******************************************************************************/
+    private static void stitchRanges() {
+        for (int i = 0; i < gramSizes.length; i++) {
+            int n = gramSizes[i];
+            ngram_counter stitched = new ngram_counter(n);
+            List<String> carry = new ArrayList<String>();
+            
+            
+            //Neither the carried terms nor the head of a range hold n terms, so every n-gram fed here spans a range edge
+            for (String[][] edges : rangeEdges.values()) {
+                stitched.restart();
+                for (String term : carry)
+                    stitched.next(term);
+                for (String term : edges[2 * i])
+                    stitched.next(term);
+                
+                if (edges[2 * i].length == n - 1)
+                    carry = new ArrayList<String>(Arrays.asList(edges[2 * i + 1]));
+                else {
+                    carry.addAll(Arrays.asList(edges[2 * i]));
+                    while (carry.size() > n - 1)
+                        carry.remove(0);
+                }
+            }
+            gramSpace.offer(stitched);
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  printGrams
+    Purpose:        This function merges the n-gram counters of every worker and
+                    prints out the most frequent n-grams of each size requested,
+                    followed by the most frequent terms of each window
+    Result:         Prints out the n-grams and the windows
+    ******************************************************************************/
+    public static void printGrams() {
+        for (int n : gramSizes) {
+            long begin = MERGE_STAGE.begin();
+            ngram_counter merged = new ngram_counter(n);
+            long grams = 0;
+            for (ngram_counter counter : gramSpace) {
+                if (counter.n() == n) {
+                    merged.addAll(counter, 0, 1);
+                    grams += counter.size();
+                }
+            }
+            MERGE_STAGE.end(begin, grams, merged.size());
+            
+            top_k top = new top_k(topCount);
+            merged.offerTo(top);
+            System.out.println("==> " + n + "-grams <==");
+            top.print();
+        }
+        
+        if (termWindow != null) {
+            System.out.println("==> windows of " + windowSize + " terms <==");
+            termWindow.print();
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  mapFile
+    Purpose:        This function opens the text file for memory-mapping and splits
+                    it into byte ranges that start and end on a delimiter, placing
+                    these ranges into a queue so that the workers tokenize and
+                    count the ranges themselves
+    Input:          path  - The path to the text file specified
+                    workers  - The number of workers that will share the ranges
+    Result:         Places the byte ranges of the file into a queue
+    ******************************************************************************/
+    public static void mapFile(String path, int workers) throws IOException {
+        long begin = READ_STAGE.begin();
+        fileChannel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        long size = fileChannel.size();
+        long rangeSize = Math.min(MAX_RANGE_SIZE, Math.max(1, size / (workers * RANGES_PER_WORKER) + 1));
+        
+        long start = 0;
+        while (start < size) {
+            long end = nextBoundary(fileChannel, Math.min(size, start + rangeSize), size);
+            rangeSpace.offer(new long[] {start, end});
+            start = end;
+        }
+        READ_STAGE.end(begin, size, rangeSpace.size());
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  nextBoundary
+    Purpose:        This function moves a position of the file forward until it no
+                    longer falls within a term
+    Input:          channel  - The channel of the file
+                    position  - The position where a range would end
+                    size  - The position the range cannot go past
+    Result:         The first position at or after the one given that is not
+                    preceded by a letter (or the size given)
+    ******************************************************************************/
+    private static long nextBoundary(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        long scan = position - 1;
+        
+        while (scan < size) {
+            buffer.clear();
+            int read = channel.read(buffer, scan);
+            if (read <= 0)
+                break;
+            for (int i = 0; i < read && scan < size; i++, scan++) {
+                if (!text_tokenizer.isWordByte(buffer.get(i), unicode))
+                    return Math.max(position, scan + 1);
+            }
+        }
+        
+        return size;
     }
     
     
     /******************************************************************************
     Function Name:  readStopWords
-    Purpose:        This function reads the list of stop words from a text file and
-                    places these words into a queue
-    Result:         Parses the text file and places the stop words into a queue
+    Purpose:        This function reads the list of stop words from a text file (or
+                    takes the built-in copy of stop_words.txt when no file is
+                    given) and compiles these words into a filter (so that they
+                    can be looked up by String or straight from the bytes of
+                    the tokenizer)
+    Result:         Parses the text file and compiles the stop words into a filter
     ******************************************************************************/
     public static void readStopWords() throws IOException {
-        String[] words = new String(Files.readAllBytes(Paths.get("stop_words.txt"))).split(",");
-        for (int i = 0; i < words.length; i++)
-            stopWords.add(words[i]);
+        stopWords = stopWordsPath == null ? stop_word_filter.defaults() : stop_word_filter.load(stopWordsPath);
     }
     
     
     /******************************************************************************
     Function Name:  processWords
     Purpose:        This function checks each word to see if it is not a stop word
-                    and, if it is not, calculates the frequency of the term
+                    and, if it is not, calculates the frequency of the term (the
+                    function stops once it takes the end of words marker)
     Result:         Calculates the frequencies of the non-stop words
     ******************************************************************************/
     public static void processWords() {
-        Map<String, Integer> word_frequencies = new HashMap<String, Integer>();
+        long begin = COUNT_STAGE.begin();
+        term_counter word_frequencies = term_counter.create(counterKind);
+        long taken = 0;
+        long kept = 0;
         String word;
         
-        while ((word = wordSpace.poll()) != null) {
-            if (!stopWords.contains(word)) {
-                if (word_frequencies.containsKey(word))
-                    word_frequencies.put(word, word_frequencies.get(word) + 1);
-                else
-                    word_frequencies.put(word, 1);
+        try {
+            while ((word = wordSpace.take()) != END_OF_WORDS) {
+                taken++;
+                if (!stopWords.contains(word)) {
+                    kept++;
+                    word_frequencies.add(word, 1);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        recordCount(begin, taken, kept);
+        frequencySpace.offer(word_frequencies);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  processRanges
+    Purpose:        This function memory-maps each byte range taken from the queue,
+                    tokenizes it, and calculates the frequency of the non-stop
+                    words found within it (the terms are checked and counted
+                    straight from the bytes of the tokenizer)
+    Result:         Calculates the frequencies of the non-stop words
+    ******************************************************************************/
+    public static void processRanges() {
+        long begin = COUNT_STAGE.begin();
+        term_counter word_frequencies = term_counter.create(counterKind);
+        text_tokenizer tokenizer = new text_tokenizer(unicode, nfc);
+        ngram_counter[] grams = newGrams();
+        long[] tally = new long[2];
+        long[] range;
+        
+        try {
+            while ((range = rangeSpace.poll()) != null) {
+                MappedByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1] - range[0]);
+                tokenizer.tokenize(buffer, (bytes, offset, length) -> {
+                    tally[0]++;
+                    if (!stopWords.contains(bytes, offset, length)) {
+                        tally[1]++;
+                        word_frequencies.add(bytes, offset, length, 1);
+                        for (ngram_counter counter : grams)
+                            counter.next(bytes, offset, length);
+                    }
+                });
+                if (grams.length > 0)
+                    recordEdges(range[0], grams);
             }
         }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
         
+        recordCount(begin, tally[0], tally[1]);
         frequencySpace.offer(word_frequencies);
+        gramSpace.addAll(Arrays.asList(grams));
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  recordCount
+    Purpose:        This function records the counting done by a worker within the
+                    metrics
+    Input:          begin  - The start of the counting
+                    tokens  - The number of terms checked
+                    kept  - The number of non-stop terms counted
+    Result:         The counting and the stop words found are recorded
+    ******************************************************************************/
+    private static void recordCount(long begin, long tokens, long kept) {
+        COUNT_STAGE.end(begin, tokens, kept);
+        term_metrics.add("tokens", tokens);
+        term_metrics.add("stop_words", tokens - kept);
     }
     
     
     /******************************************************************************
     Function Name:  mergeFrequencies
     Purpose:        This function will review the frequencies of terms, based on
-                    the bounds specified, so that they can be merged into a queue
-    Input:          lowerBound  - Indicates the lower bound of which terms to merge
-                                  based on the first character of the term
-                    upperBound  - Indicates the upper bound of which terms to merge
-                                  based on the first character of the term
-    Result:         Merge the frequencies of the terms into a queue
-    ******************************************************************************/
-    public static void mergeFrequencies(char lowerBound, char upperBound) {
-        for (Map<String, Integer> element : frequencySpace) {
-            for (String key : element.keySet()) {
-                
-                if (key.charAt(0) < lowerBound || key.charAt(0) > upperBound)
-                    continue;
-                    
-                if (wordFrequencies.containsKey(key))
-                    wordFrequencies.put(key, wordFrequencies.get(key) + element.get(key));
-                    
+                    the shard specified, so that they can be merged into a
+                    counter owned by the caller (no two shards share a term, so
+                    no locking is needed)
+    Input:          shard  - Indicates which shard of the terms to merge
+                    shards  - Indicates the total number of shards
+    Result:         The merged frequencies of the terms of the shard
+    ******************************************************************************/
+    public static term_counter mergeFrequencies(int shard, int shards) {
+        long begin = MERGE_STAGE.begin();
+        term_counter merged = term_counter.create(counterKind);
+        
+        long terms = 0;
+        for (term_counter element : frequencySpace) {
+            merged.addAll(element, shard, shards);
+            terms += element.size();
+        }
+        
+        MERGE_STAGE.end(begin, terms, merged.size());
+        return merged;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  mergeShards
+    Purpose:        This function merges the frequencies placed into the queue
+                    through one Frequency per shard, each of which also selects
+                    the most frequent terms of its shard
+    Input:          shards  - The number of shards
+                    inline  - Whether the Frequency objects run one after the
+                              other on the calling thread (instead of on
+                              threads of their own)
+    Result:         The merged frequencies and the most frequent terms of each
+                    shard are kept for top25, replacing those of an earlier
+                    merge
+    ******************************************************************************/
+    public static void mergeShards(int shards, boolean inline) {
+        wordFrequencies.clear();
+        topFrequencies.clear();
+        
+        
+        //The threads which will be responsible for merging the frequencies of the terms, one per shard
+        Frequency[] frequencies = new Frequency[shards];
+        
+        
+        for (int i = 0; i < frequencies.length; i++) {
+            frequencies[i] = new Frequency(i, frequencies.length);
+            if (!inline)
+                frequencies[i].start();
+        }
+        
+        for (int i = 0; i < frequencies.length; i++) {
+            try {
+                if (inline)
+                    frequencies[i].run();
                 else
-                    wordFrequencies.put(key, element.get(key));
+                    frequencies[i].join();
+                wordFrequencies.add(frequencies[i].result);
+                topFrequencies.add(frequencies[i].top);
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
             }
         }
     }
     
     
+    /******************************************************************************
+    Function Name:  reset
+    Purpose:        This function empties the spaces and the results left by an
+                    earlier count, so that the stages of a count can be run
+                    again within the same process (by the benchmarks and the
+                    checks)
+    Result:         The spaces and the results are empty
+    ******************************************************************************/
+    public static void reset() {
+        wordSpace = new LinkedBlockingQueue<String>();
+        rangeSpace.clear();
+        fileChannel = null;
+        frequencySpace.clear();
+        wordFrequencies.clear();
+        topFrequencies.clear();
+        gramSpace.clear();
+        rangeEdges.clear();
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  mergeCounters
+    Purpose:        This function merges counters given by the caller the same way
+                    as a run merges the frequencies of its workers, so that the
+                    benchmarks and the checks measure and verify the merge of
+                    the program itself. Whatever an earlier count left in the
+                    spaces is dropped first
+    Input:          counters  - The counters to merge
+                    kind  - The kind of counter to merge into
+                    shards  - The number of shards, one thread each
+    Result:         The merged frequencies of each shard
+    ******************************************************************************/
+    public static term_counter[] mergeCounters(term_counter[] counters, String kind, int shards) {
+        reset();
+        counterKind = kind;
+        
+        frequencySpace.addAll(Arrays.asList(counters));
+        mergeShards(shards, false);
+        return wordFrequencies.toArray(new term_counter[0]);
+    }
+    
+    
     /******************************************************************************
     Function Name:  top25
-    Purpose:        This function will print out the top 25 terms and their
-                    frequencies
+    Purpose:        This function will merge the most frequent terms selected by
+                    each shard and print out the top 25 terms (unless specified)
+                    and their frequencies (with their error bounds when the counts
+                    are approximate)
     Result:         Prints out the top 25 terms and their frequencies
     ******************************************************************************/
     public static void top25() {
-        List<Entry<String, Integer>> sortedFrequencies = new ArrayList<Entry<String, Integer>>();
-        sortedFrequencies.addAll(wordFrequencies.entrySet());
-        Collections.sort(sortedFrequencies, (word1, word2) -> word2.getValue() - word1.getValue());
+        top_k top = new top_k(topCount);
+        for (top_k shard : topFrequencies)
+            top.addAll(shard);
         
-        for (int i = 0; i < 25; i++) {
-            Entry<String, Integer> p = sortedFrequencies.get(i);
-            System.out.println(p.getKey() + "  -  " + p.getValue());
-        }
+        top.print();
+        if ("space-saving".equals(counterKind))
+            System.err.println(space_saving_counter.describe(wordFrequencies, top));
     }
     
     
@@ -184,62 +840,266 @@ public class dataspaces_style {
     Purpose:        This function executes our term frequency program by utilizing
                     various threads to call the functions used to count the terms
                     and their frequencies
-    Input:          args  - An array of arguments
+    Input:          args  - An array of arguments (the path to the text file and,
+                            optionally, --merge-threads=N for the number of
+                            threads merging the frequencies, --workers=N for
+                            the number of threads counting the terms,
+                            --top=K for the number of terms printed,
+                            --stop-words=PATH for the list of stop words,
+                            --counter=hashmap to count the terms within a
+                            HashMap instead of a term_count_table (or
+                            --counter=space-saving to approximate the counts
+                            within --sketch-capacity=N terms, or as many as
+                            --sketch-error=E needs for counts at most E times
+                            the number of terms too high), --stream
+                            to read the file while the terms are counted and
+                            --mmap to let each worker map and count its own
+                            ranges of the file; several files, a directory,
+                            a glob or an @list of files can be given instead
+                            of the text file, or --corpus to count a single
+                            one the same way, --per-file to also print the
+                            top terms of each file, --load-snapshot=PATH
+                            (repeatable) to start from saved counts,
+                            --save-snapshot=PATH to save the merged counts,
+                            --export=DIR to export every merged count with
+                            term IDs,
+                            --metrics to time each stage (or
+                            --metrics=PATH to write the metrics as JSON),
+                            --unicode to read terms in any script (with
+                            --nfc to also compose their accents),
+                            --ngrams=2,3 to also print the top n-grams of
+                            consecutive non-stop terms and --window=N to
+                            print the --window-top=K terms of each window of
+                            N non-stop terms; a text file smaller than
+                            --small-input=BYTES, 256 KB unless specified, is
+                            counted without starting any thread)
     Result:         Counts the frequency of each non-stop word and displays the
                     results into the terminal
     ******************************************************************************/
     public static void main(String[] args) {
+        List<String> inputs = new ArrayList<String>();
+        int mergeThreads = Runtime.getRuntime().availableProcessors();
+        int workerCount = 5;
+        boolean stream = false;
+        boolean mmap = false;
+        boolean corpus = false;
+        boolean perFile = false;
+        List<Path> snapshots = new ArrayList<Path>();
+        Path saveSnapshot = null;
+        Path exportDirectory = null;
+        for (String arg : args) {
+            if (arg.equals("--stream"))
+                stream = true;
+            else if (arg.equals("--corpus"))
+                corpus = true;
+            else if (arg.equals("--per-file"))
+                perFile = true;
+            else if (arg.startsWith("--load-snapshot="))
+                snapshots.add(Paths.get(arg.substring("--load-snapshot=".length())));
+            else if (arg.startsWith("--save-snapshot="))
+                saveSnapshot = Paths.get(arg.substring("--save-snapshot=".length()));
+            else if (arg.startsWith("--export="))
+                exportDirectory = Paths.get(arg.substring("--export=".length()));
+            else if (arg.equals("--mmap"))
+                mmap = true;
+            else if (arg.startsWith("--stop-words="))
+                stopWordsPath = arg.substring("--stop-words=".length());
+            else if (arg.startsWith("--top="))
+                topCount = Integer.parseInt(arg.substring("--top=".length()));
+            else if (arg.startsWith("--counter="))
+                counterKind = arg.substring("--counter=".length());
+            else if (arg.startsWith("--sketch-capacity="))
+                space_saving_counter.defaultCapacity = space_saving_counter.capacity(Integer.parseInt(arg.substring("--sketch-capacity=".length())));
+            else if (arg.startsWith("--sketch-error="))
+                space_saving_counter.defaultCapacity = space_saving_counter.capacityFor(Double.parseDouble(arg.substring("--sketch-error=".length())));
+            else if (arg.startsWith("--workers="))
+                workerCount = Math.max(1, Integer.parseInt(arg.substring("--workers=".length())));
+            else if (arg.equals("--unicode"))
+                unicode = true;
+            else if (arg.equals("--nfc"))
+                unicode = nfc = true;
+            else if (arg.equals("--metrics"))
+                term_metrics.enable(null);
+            else if (arg.startsWith("--metrics="))
+                term_metrics.enable(arg.substring("--metrics=".length()));
+            else if (arg.startsWith("--ngrams="))
+                gramSizes = Arrays.stream(arg.substring("--ngrams=".length()).split(",")).mapToInt(Integer::parseInt).toArray();
+            else if (arg.startsWith("--window="))
+                windowSize = Integer.parseInt(arg.substring("--window=".length()));
+            else if (arg.startsWith("--window-top="))
+                windowTop = Integer.parseInt(arg.substring("--window-top=".length()));
+            else if (arg.startsWith("--small-input="))
+                smallInput = Long.parseLong(arg.substring("--small-input=".length()));
+            else if (arg.startsWith("--merge-threads="))
+                mergeThreads = Math.max(1, Integer.parseInt(arg.substring("--merge-threads=".length())));
+            else
+                inputs.add(arg);
+        }
+        
         
+        //Terms outside of ASCII are only printed properly in UTF-8, whatever the default charset of the platform
+        if (unicode)
+            System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.out), true, StandardCharsets.UTF_8));
+        
+        List<Path> files = new ArrayList<Path>();
         try {
-            readFile(args[0]);
             readStopWords();
+            files = resolveInputs(inputs);
         }
         catch(IOException e) {
-            e.printStackTrace();
+            System.err.println("Could not read the inputs: " + e);
+            System.exit(1);
         }
         
         
-        //The workers which will be tasked to process the terms through five threads
-        Worker[] workers = new Worker[5];
-        
-        
-        for (int i = 0; i < workers.length; i++) {
-            workers[i] = new Worker();
-            workers[i].start();
+        //A run with nothing to count fails, rather than printing an empty top
+        if (files.isEmpty() && snapshots.isEmpty()) {
+            System.err.println(inputs.isEmpty() ? "No text file, directory, glob or @list was given" : "No file to count within " + inputs);
+            System.exit(1);
         }
         
-        for (int i = 0; i < workers.length; i++) {
+        
+        //A snapshot that cannot be loaded stops the run, as --save-snapshot would otherwise replace it with the new counts alone
+        for (Path snapshot : snapshots) {
             try {
-                workers[i].join();
+                loadSnapshot(snapshot);
             }
-            catch (InterruptedException e) {
-                e.printStackTrace();
+            catch(IOException e) {
+                System.err.println("Could not load the snapshot " + snapshot + ": " + e);
+                System.exit(1);
             }
         }
         
+        for (int n : gramSizes) {
+            if (n < 2 || n > ngram_counter.MAX_N)
+                throw new IllegalArgumentException("--ngrams takes sizes from 2 to " + ngram_counter.MAX_N + ", not " + n);
+        }
+        
+        boolean inline = false;
+        if (corpus || perFile || files.size() != 1 || Files.isDirectory(files.get(0))) {
+            if (gramSizes.length > 0 || windowSize > 0)
+                System.err.println("--ngrams and --window follow the terms of a single text file and are ignored for a corpus");
+            gramSizes = new int[0];
+            windowSize = 0;
+            countCorpus(files, workerCount, perFile);
+        }
+        else {
+            if (mmap && windowSize > 0)
+                System.err.println("--window needs the terms in the order of the file and is ignored with --mmap");
+            
+            
+            //A small file is counted and merged on the main thread, as starting the threads would take longer than the count
+            inline = files.get(0).toFile().length() < smallInput;
+            if (inline) {
+                workerCount = 1;
+                mergeThreads = 1;
+            }
+            countFile(files.get(0).toString(), workerCount, stream, mmap, inline);
+        }
         
-        //The threads which will be responsible for merging the frequencies of the terms
-        Frequency[] frequencies = new Frequency[5];
-        frequencies[0] = new Frequency('a', 'e');
-        frequencies[1] = new Frequency('f', 'j');
-        frequencies[2] = new Frequency('k', 'o');
-        frequencies[3] = new Frequency('p', 't');
-        frequencies[4] = new Frequency('u', 'z');
         
+        term_metrics.gaugeMax("frequency_space.counters", frequencySpace.size());
+        mergeShards(mergeThreads, inline);
         
-        for (int i = 0; i < frequencies.length; i++) {
-            frequencies[i].start();
+        try {
+            if (saveSnapshot != null)
+                term_snapshot.write(saveSnapshot, wordFrequencies);
+            if (exportDirectory != null)
+                term_export.write(exportDirectory, wordFrequencies);
+        }
+        catch(IOException e) {
+            e.printStackTrace();
         }
         
-        for (int i = 0; i < frequencies.length; i++) {
+        top25();
+        printGrams();
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  countFile
+    Purpose:        This function counts the terms of a single text file through
+                    the workers, placing the frequencies of each worker into the
+                    queue merged later on
+    Input:          path  - The path to the text file specified
+                    workerCount  - The number of workers
+                    stream  - Whether to read the file while the terms are counted
+                    mmap  - Whether each worker maps and counts its own ranges
+                    inline  - Whether the workers run one after the other on
+                              the calling thread, once the file is read
+                              (instead of on threads of their own)
+    Result:         The frequencies of each worker are placed into a queue
+    ******************************************************************************/
+    public static void countFile(String path, int workerCount, boolean stream, boolean mmap, boolean inline) {
+        try {
+            if (mmap)
+                mapFile(path, workerCount);
+        }
+        catch(IOException e) {
+            System.err.println("Could not read " + path + ": " + e);
+            System.exit(1);
+        }
+        
+        if (stream && !inline)
+            wordSpace = new LinkedBlockingQueue<String>(STREAM_CAPACITY);
+        
+        
+        //The workers which will be tasked to process the terms through five threads (unless specified)
+        Worker[] workers = new Worker[workerCount];
+        
+        
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker();
+            if (!inline)
+                workers[i].start();
+        }
+        
+        if (fileChannel == null) {
+            readerGrams = newGrams();
+            if (windowSize > 0)
+                termWindow = new term_window(windowSize, windowTop);
+            
             try {
-                frequencies[i].join();
+                if (stream)
+                    streamFile(path);
+                else
+                    readFile(path);
+            }
+            catch(IOException e) {
+                System.err.println("Could not read " + path + ": " + e);
+                System.exit(1);
+            }
+            
+            
+            //Each worker stops once it takes one of these markers
+            for (int i = 0; i < workers.length; i++)
+                putWord(END_OF_WORDS);
+            gramSpace.addAll(Arrays.asList(readerGrams));
+            if (termWindow != null)
+                termWindow.finish();
+        }
+        
+        for (int i = 0; i < workers.length; i++) {
+            try {
+                if (inline)
+                    workers[i].run();
+                else
+                    workers[i].join();
             }
             catch (InterruptedException e) {
                 e.printStackTrace();
             }
         }
         
-        top25();
+        if (fileChannel != null)
+            stitchRanges();
+        
+        try {
+            if (fileChannel != null)
+                fileChannel.close();
+        }
+        catch(IOException e) {
+            e.printStackTrace();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,79 @@
+/******************************************************************************
+File Name:    actors_stages.java
+Description:  This file holds the JMH benchmarks of actors_style, which count
+              the corpus on the active objects of the program itself, started
+              through startPipeline: once from the path of the corpus (the
+              dataStorageManager reading the file within init) and once from
+              the bytes of the corpus already read (as a request to --serve
+              is counted).
+******************************************************************************/
+
+
+package benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class actors_stages {
+    
+    
+    /******************************************************************************
+    Class:          contents
+    Description:    The bytes of the corpus, read once
+    Data Fields:    bytes  - The bytes of the corpus
+    Functions:      read  - Reads the corpus
+    ******************************************************************************/
+    @State(Scope.Benchmark)
+    public static class contents {
+        
+        
+        //Instance variables
+        byte[] bytes;
+        
+        
+        @Setup(Level.Trial)
+        public void read(dataspaces_stages.corpus text) throws Exception {
+            bytes = Files.readAllBytes(Paths.get(text.path));
+        }
+    }
+    
+    
+    @Benchmark
+    public Object countFile(dataspaces_stages.corpus text) throws Throwable {
+        return count(text.path, null);
+    }
+    
+    @Benchmark
+    public Object countContents(contents text) throws Throwable {
+        return count(null, text.bytes);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  count
+    Purpose:        This function counts a text on new active objects and waits
+                    for the most frequent terms
+    Input:          path  - The path to the text (null when the bytes are given)
+                    bytes  - The bytes of the text (null to read the file)
+    Result:         The most frequent terms
+    ******************************************************************************/
+    private static Object count(String path, byte[] bytes) throws Throwable {
+        CompletableFuture<Object> result = new CompletableFuture<Object>();
+        BiConsumer<Object, Object> output = (terms, counters) -> result.complete(terms);
+        Consumer<Exception> failed = result::completeExceptionally;
+        List<?> pipeline = (List<?>) programs.ACTORS_START_PIPELINE.invokeExact(path, bytes, Collections.emptyList(), 25, output, failed);
+        return result.get();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,184 @@
+/******************************************************************************
+File Name:    dataspaces_stages.java
+Description:  This file holds the JMH benchmarks of the stages of
+              dataspaces_style, each of which calls the method of the program
+              itself: readFile (reading and tokenizing the text), countFile
+              (reading, tokenizing, filtering the stop words and counting on
+              the workers), mergeShards (mergeFrequencies on one Frequency
+              thread per shard) and top25. The filter benchmark checks the
+              terms of the corpus against the stop word filter the programs
+              share.
+******************************************************************************/
+
+
+package benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class dataspaces_stages {
+    
+    
+    //Class variables
+    private static final int WORKERS = 5;
+    private static final int SAMPLE_BYTES = 1 << 20;
+    
+    
+    /******************************************************************************
+    Class:          corpus
+    Description:    The corpus generated from pride-and-prejudice.txt (run the
+                    benchmarks from the repository folder) along with the stop
+                    words of the program
+    Data Fields:    size  - The size of the corpus, such as 10MB, 1GB or 10GB
+                    path  - The path to the corpus
+    Functions:      generate  - Generates the corpus (or reuses it) and reads
+                                the stop words
+    ******************************************************************************/
+    @State(Scope.Benchmark)
+    public static class corpus {
+        
+        
+        //Instance variables
+        @Param({"10MB"})
+        public String size;
+        String path;
+        
+        
+        @Setup(Level.Trial)
+        public void generate() throws Throwable {
+            Path directory = Paths.get(System.getProperty("java.io.tmpdir"));
+            path = ((Path) programs.GENERATE_CORPUS.invokeExact(directory, (long) programs.PARSE_SIZE.invokeExact(size))).toString();
+            programs.DATASPACES_STOP_WORDS.invokeExact();
+        }
+    }
+    
+    
+    /******************************************************************************
+    Class:          emptySpaces
+    Description:    Empties the spaces of the program before each run, so that
+                    every run starts the way a new process does
+    Functions:      reset  - Empties the spaces
+    ******************************************************************************/
+    @State(Scope.Thread)
+    public static class emptySpaces {
+        @Setup(Level.Invocation)
+        public void reset() throws Throwable {
+            programs.DATASPACES_RESET.invokeExact();
+        }
+    }
+    
+    
+    /******************************************************************************
+    Class:          counted
+    Description:    The frequencies of the workers of one count of the corpus,
+                    ready to be merged (and then merged, ready for top25, whose
+                    output is dropped)
+    Data Fields:    shards  - The number of shards, one Frequency thread each
+                    out  - The standard output, restored once done
+    Functions:      count  - Counts the corpus and merges it once
+                    restore  - Restores the standard output
+    ******************************************************************************/
+    @State(Scope.Benchmark)
+    public static class counted {
+        
+        
+        //Instance variables
+        final int shards = Runtime.getRuntime().availableProcessors();
+        private PrintStream out;
+        
+        
+        @Setup(Level.Trial)
+        public void count(corpus text) throws Throwable {
+            programs.DATASPACES_RESET.invokeExact();
+            programs.DATASPACES_COUNT_FILE.invokeExact(text.path, WORKERS, false, false, false);
+            programs.DATASPACES_MERGE_SHARDS.invokeExact(shards, false);
+            
+            out = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        
+        @TearDown(Level.Trial)
+        public void restore() {
+            System.setOut(out);
+        }
+    }
+    
+    
+    /******************************************************************************
+    Class:          terms
+    Description:    The terms of the start of the corpus, as the tokenizer of the
+                    programs reads them, along with the stop word filter
+    Data Fields:    words  - The terms
+                    filter  - The stop word filter of the programs
+    Functions:      tokenize  - Reads the terms of the start of the corpus
+    ******************************************************************************/
+    @State(Scope.Benchmark)
+    public static class terms {
+        
+        
+        //Instance variables
+        String[] words;
+        Object filter;
+        
+        
+        @Setup(Level.Trial)
+        public void tokenize(corpus text) throws Throwable {
+            byte[] contents = Files.readAllBytes(Paths.get(text.path));
+            int length = Math.min(contents.length, SAMPLE_BYTES);
+            List<String> sample = new ArrayList<String>();
+            Consumer<String> consumer = sample::add;
+            programs.TOKENIZE.invokeExact(programs.NEW_TOKENIZER.invokeExact(), contents, 0, length, consumer);
+            words = sample.toArray(new String[0]);
+            filter = (Object) programs.STOP_WORD_DEFAULTS.invokeExact();
+        }
+    }
+    
+    
+    @Benchmark
+    public void readFile(corpus text, emptySpaces spaces) throws Throwable {
+        programs.DATASPACES_READ_FILE.invokeExact(text.path);
+    }
+    
+    @Benchmark
+    public long filter(terms sample) throws Throwable {
+        long kept = 0;
+        for (String word : sample.words) {
+            if (!(boolean) programs.STOP_WORD_CONTAINS.invokeExact(sample.filter, word))
+                kept++;
+        }
+        return kept;
+    }
+    
+    @Benchmark
+    public void countFile(corpus text, emptySpaces spaces) throws Throwable {
+        programs.DATASPACES_COUNT_FILE.invokeExact(text.path, WORKERS, false, false, false);
+    }
+    
+    @Benchmark
+    public void countFileMapped(corpus text, emptySpaces spaces) throws Throwable {
+        programs.DATASPACES_COUNT_FILE.invokeExact(text.path, WORKERS, false, true, false);
+    }
+    
+    @Benchmark
+    public void mergeFrequencies(counted counts) throws Throwable {
+        programs.DATASPACES_MERGE_SHARDS.invokeExact(counts.shards, false);
+    }
+    
+    @Benchmark
+    public void top25(counted counts) throws Throwable {
+        programs.DATASPACES_TOP25.invokeExact();
+    }
+}
\ No newline at end of file
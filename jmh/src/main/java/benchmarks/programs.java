@@ -0,0 +1,104 @@
+/******************************************************************************
+File Name:    programs.java
+Description:  This file binds the benchmarks to the stages of the Java term
+              frequency programs. JMH only runs benchmarks declared within a
+              package, while the programs live in the default package, which
+              no named package can refer to; each stage is therefore looked
+              up once as a MethodHandle held in a static final field, which
+              the JIT compiles into a direct call of the program's method.
+******************************************************************************/
+
+
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+final class programs {
+    
+    
+    //Class variables
+    static final MethodHandle GENERATE_CORPUS = find("term_frequency_benchmark", "generateCorpus", Path.class, Path.class, long.class);
+    static final MethodHandle PARSE_SIZE = find("term_frequency_benchmark", "parseSize", long.class, String.class);
+    static final MethodHandle DATASPACES_RESET = find("dataspaces_style", "reset", void.class);
+    static final MethodHandle DATASPACES_STOP_WORDS = find("dataspaces_style", "readStopWords", void.class);
+    static final MethodHandle DATASPACES_READ_FILE = find("dataspaces_style", "readFile", void.class, String.class);
+    static final MethodHandle DATASPACES_COUNT_FILE = find("dataspaces_style", "countFile", void.class,
+            String.class, int.class, boolean.class, boolean.class, boolean.class);
+    static final MethodHandle DATASPACES_MERGE_SHARDS = find("dataspaces_style", "mergeShards", void.class, int.class, boolean.class);
+    static final MethodHandle DATASPACES_TOP25 = find("dataspaces_style", "top25", void.class);
+    static final MethodHandle ACTORS_START_PIPELINE = find("actors_style", "startPipeline", List.class,
+            String.class, byte[].class, List.class, int.class, BiConsumer.class, Consumer.class);
+    static final MethodHandle STOP_WORD_DEFAULTS = find("stop_word_filter", "defaults", program("stop_word_filter"))
+            .asType(MethodType.methodType(Object.class));
+    static final MethodHandle STOP_WORD_CONTAINS = findVirtual("stop_word_filter", "contains", boolean.class, String.class);
+    static final MethodHandle NEW_TOKENIZER = findConstructor("text_tokenizer");
+    static final MethodHandle TOKENIZE = findVirtual("text_tokenizer", "tokenize", void.class,
+            byte[].class, int.class, int.class, Consumer.class);
+    
+    
+    private programs() {
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  program
+    Purpose:        This function loads the class of one of the programs
+    Input:          name  - The name of the class
+    Result:         The class
+    ******************************************************************************/
+    private static Class<?> program(String name) {
+        try {
+            return Class.forName(name);
+        }
+        catch (ClassNotFoundException e) {
+            throw new IllegalStateException("The benchmarks need " + name, e);
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  find, findVirtual, findConstructor
+    Purpose:        These functions look up a public method (or constructor) of one
+                    of the programs; an object of the default package is seen
+                    as an Object by the benchmarks
+    Input:          program  - The name of the class of the program
+                    name  - The name of the method
+                    result  - The type returned by the method
+                    parameters  - The types of the parameters of the method
+    Result:         The handle of the method
+    ******************************************************************************/
+    private static MethodHandle find(String program, String name, Class<?> result, Class<?>... parameters) {
+        try {
+            return MethodHandles.publicLookup().findStatic(program(program), name, MethodType.methodType(result, parameters));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The benchmarks need " + program + "." + name, e);
+        }
+    }
+    
+    private static MethodHandle findVirtual(String program, String name, Class<?> result, Class<?>... parameters) {
+        try {
+            MethodHandle method = MethodHandles.publicLookup().findVirtual(program(program), name, MethodType.methodType(result, parameters));
+            return method.asType(method.type().changeParameterType(0, Object.class));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The benchmarks need " + program + "." + name, e);
+        }
+    }
+    
+    private static MethodHandle findConstructor(String program) {
+        try {
+            return MethodHandles.publicLookup().findConstructor(program(program), MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The benchmarks need a new " + program, e);
+        }
+    }
+}
\ No newline at end of file
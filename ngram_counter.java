@@ -0,0 +1,525 @@
+/******************************************************************************
+File Name:    ngram_counter.java
+Description:  This file holds the counter of n-grams (sequences of two or three
+              consecutive non-stop terms) used by the Java term frequency
+              programs. Terms are fed in the order they are read; each term
+              is given a small ID the first time the counter sees it, and an
+              n-gram is counted under a single long key packing the IDs of
+              its terms, so counting an n-gram neither concatenates Strings
+              nor boxes its count. Each key sits next to its count within a
+              single array, so counting an n-gram touches one cache line, and
+              the ID of a term of up to eight bytes is looked up by the term
+              packed into a long rather than by its bytes. Counters made over
+              separate parts of a text can be merged, the IDs being
+              translated on the way.
+              
+              The IDs of a trigram only get 21 bits of the key each, so the
+              n-grams holding a term past the first two million distinct
+              terms are counted within a second table, under two longs giving
+              each ID 32 bits. Those terms are the ones seen last, so the
+              second table stays small and the common case keeps its single
+              long key.
+******************************************************************************/
+
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class ngram_counter {
+    
+    
+    //Class variables
+    public static final int MAX_N = 3;
+    private static final int INITIAL_CAPACITY = 1024;
+    
+    
+    //Instance variables
+    private final int n;
+    private final int bits;
+    private final long limit;
+    private final long recentMask;
+    private final term_count_table ids = new term_count_table();
+    private long[] shortIds = new long[2 * INITIAL_CAPACITY];
+    private int shortSize = 0;
+    private final List<String> terms = new ArrayList<String>();
+    private long[] slots = new long[2 * INITIAL_CAPACITY];
+    private int size = 0;
+    private long[] wideSlots = null;
+    private int wideSize = 0;
+    private long recent = 0;
+    private final int[] window;
+    private long wideUntil = -1;
+    private long seen = 0;
+    private final int[] head;
+    
+    
+    public ngram_counter(int n) {
+        if (n < 2 || n > MAX_N)
+            throw new IllegalArgumentException("n-grams of 2 to " + MAX_N + " terms are supported, not " + n);
+        this.n = n;
+        this.bits = 64 / n;
+        this.limit = 1L << bits;
+        this.recentMask = (1L << (bits * (n - 1))) - 1;
+        this.window = new int[n - 1];
+        this.head = new int[n - 1];
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  n
+    Purpose:        This function tells how many terms the n-grams are made of
+    Result:         The number of terms of each n-gram
+    ******************************************************************************/
+    public int n() {
+        return n;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  next
+    Purpose:        These functions feed the next term of the text, counting the
+                    n-gram it ends once n terms were fed since the last restart
+    Input:          bytes, offset, length  - The UTF-8 bytes of the term
+                    term  - The term
+    Result:         The n-gram ending with the term is counted
+    ******************************************************************************/
+    public void next(byte[] bytes, int offset, int length) {
+        if (length <= 8) {
+            long packed = 0;
+            for (int i = offset; i < offset + length; i++)
+                packed = (packed << 8) | (bytes[i] & 0xFF);
+            int id = findShort(packed);
+            push(id >= 0 ? id : addShort(packed, new String(bytes, offset, length, StandardCharsets.UTF_8)));
+            return;
+        }
+        
+        int id = (int) ids.get(bytes, offset, length) - 1;
+        if (id < 0) {
+            id = newId(new String(bytes, offset, length, StandardCharsets.UTF_8));
+            ids.add(bytes, offset, length, id + 1);
+        }
+        push(id);
+    }
+    
+    public void next(String term) {
+        push(intern(term));
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  restart
+    Purpose:        This function starts a new sequence of terms (such as another
+                    file or another range of a file), so that no n-gram is
+                    counted across the two
+    Result:         The terms fed so far no longer start n-grams
+    ******************************************************************************/
+    public void restart() {
+        recent = 0;
+        wideUntil = -1;
+        seen = 0;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  head, tail
+    Purpose:        These functions describe the edges of the current sequence, so
+                    that the n-grams spanning two sequences counted apart can be
+                    counted once both are done
+    Result:         The first and the last n - 1 terms of the sequence (fewer if
+                    the sequence is shorter)
+    ******************************************************************************/
+    public String[] head() {
+        String[] edge = new String[(int) Math.min(seen, n - 1)];
+        for (int i = 0; i < edge.length; i++)
+            edge[i] = terms.get(head[i]);
+        return edge;
+    }
+    
+    public String[] tail() {
+        String[] edge = new String[(int) Math.min(seen, n - 1)];
+        for (int i = 0; i < edge.length; i++)
+            edge[i] = terms.get(window[n - 1 - edge.length + i]);
+        return edge;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  size
+    Purpose:        This function tells how many distinct n-grams were counted
+    Result:         The number of distinct n-grams
+    ******************************************************************************/
+    public int size() {
+        return size + wideSize;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  forEach
+    Purpose:        This function passes every n-gram (its terms separated by
+                    spaces) and its count to the consumer
+    Input:          consumer  - The receiver of the n-grams
+    Result:         Every n-gram is passed to the consumer
+    ******************************************************************************/
+    public void forEach(term_counter.entryConsumer consumer) {
+        for (int slot = 0; slot < slots.length; slot += 2) {
+            if (slots[slot + 1] != 0)
+                consumer.accept(gram(false, 0, slots[slot]), slots[slot + 1]);
+        }
+        for (int slot = 0; wideSlots != null && slot < wideSlots.length; slot += 4) {
+            if (wideSlots[slot + 2] != 0)
+                consumer.accept(gram(true, wideSlots[slot], wideSlots[slot + 1]), wideSlots[slot + 2]);
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  offerTo
+    Purpose:        This function offers every n-gram and its count to a top K
+                    selection (the String of an n-gram is only built if its count
+                    can make the selection)
+    Input:          top  - The selection
+    Result:         The most frequent n-grams are kept by the selection
+    ******************************************************************************/
+    public void offerTo(top_k top) {
+        for (int slot = 0; slot < slots.length; slot += 2) {
+            if (slots[slot + 1] != 0 && top.admits(slots[slot + 1]))
+                top.offer(gram(false, 0, slots[slot]), slots[slot + 1]);
+        }
+        for (int slot = 0; wideSlots != null && slot < wideSlots.length; slot += 4) {
+            if (wideSlots[slot + 2] != 0 && top.admits(wideSlots[slot + 2]))
+                top.offer(gram(true, wideSlots[slot], wideSlots[slot + 1]), wideSlots[slot + 2]);
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  addAll
+    Purpose:        This function adds the counts of the n-grams of another
+                    counter that belong to the shard given, translating the IDs
+                    of their terms into the IDs of this counter
+    Input:          other  - The counter of another part of the text
+                    shard  - The shard whose n-grams are added
+                    shards  - The total number of shards
+    Result:         The counts of the n-grams of the shard are added
+    ******************************************************************************/
+    public void addAll(ngram_counter other, int shard, int shards) {
+        if (other.n != n)
+            throw new IllegalArgumentException("Cannot merge " + other.n + "-grams into " + n + "-grams");
+        int[] translated = new int[other.terms.size()];
+        Arrays.fill(translated, -1);
+        int[] previous = new int[n - 1];
+        
+        for (int slot = 0; slot < other.slots.length; slot += 2) {
+            if (other.slots[slot + 1] != 0)
+                addGram(other, false, 0, other.slots[slot], other.slots[slot + 1], translated, previous, shard, shards);
+        }
+        for (int slot = 0; other.wideSlots != null && slot < other.wideSlots.length; slot += 4) {
+            if (other.wideSlots[slot + 2] != 0)
+                addGram(other, true, other.wideSlots[slot], other.wideSlots[slot + 1], other.wideSlots[slot + 2], translated, previous, shard, shards);
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  addGram
+    Purpose:        This function adds the count of one n-gram of another counter
+                    if it belongs to the shard given
+    Input:          other  - The counter holding the n-gram
+                    wide, high, low  - The key of the n-gram within the other
+                                       counter
+                    delta  - The count of the n-gram
+                    translated  - The IDs of this counter given so far to the
+                                  terms of the other counter (-1 if none yet)
+                    previous  - Room for the IDs of the n-gram but the last
+                    shard  - The shard whose n-grams are added
+                    shards  - The total number of shards
+    Result:         The count of the n-gram is added if the shard owns it
+    ******************************************************************************/
+    private void addGram(ngram_counter other, boolean wide, long high, long low, long delta, int[] translated, int[] previous,
+            int shard, int shards) {
+        int hash = 0;
+        for (int i = 0; i < n; i++)
+            hash = 31 * hash + term_count_table.hash(other.terms.get(other.idAt(wide, high, low, i)));
+        if (term_counter.shardOf(hash, shards) != shard)
+            return;
+        
+        for (int i = 0; i < n; i++) {
+            int id = other.idAt(wide, high, low, i);
+            if (translated[id] < 0)
+                translated[id] = intern(other.terms.get(id));
+            if (i < n - 1)
+                previous[i] = translated[id];
+        }
+        count(previous, translated[other.idAt(wide, high, low, n - 1)], delta);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  intern
+    Purpose:        This function finds the ID of a term, giving it the next ID the
+                    first time it is seen
+    Input:          term  - The term
+    Result:         The ID of the term
+    ******************************************************************************/
+    private int intern(String term) {
+        if (term.length() <= 8) {
+            long packed = 0;
+            for (int i = 0; i < term.length() && packed >= 0; i++)
+                packed = term.charAt(i) < 0x80 ? (packed << 8) | term.charAt(i) : -1;
+            
+            
+            //A term outside of ASCII is packed from its UTF-8 bytes, the same as when it is fed as bytes
+            byte[] bytes = packed < 0 ? term.getBytes(StandardCharsets.UTF_8) : null;
+            if (bytes != null && bytes.length <= 8) {
+                packed = 0;
+                for (byte b : bytes)
+                    packed = (packed << 8) | (b & 0xFF);
+            }
+            if (bytes == null || bytes.length <= 8) {
+                int id = findShort(packed);
+                return id >= 0 ? id : addShort(packed, term);
+            }
+        }
+        
+        int id = (int) ids.get(term) - 1;
+        if (id < 0) {
+            id = newId(term);
+            ids.add(term, id + 1);
+        }
+        return id;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  findShort, addShort
+    Purpose:        These functions look up and give out the IDs of the terms of
+                    up to eight bytes through the terms packed into a long (no
+                    byte of a term is zero, so terms of different lengths never
+                    pack the same)
+    Input:          packed  - The bytes of the term packed into a long
+                    term  - The term given a new ID
+    Result:         The ID of the term (-1 if the term has none yet)
+    ******************************************************************************/
+    private int findShort(long packed) {
+        int mask = shortIds.length - 1;
+        int slot = slotOf(packed, mask);
+        while (shortIds[slot + 1] != 0) {
+            if (shortIds[slot] == packed)
+                return (int) shortIds[slot + 1] - 1;
+            slot = (slot + 2) & mask;
+        }
+        return -1;
+    }
+    
+    private int addShort(long packed, String term) {
+        int id = newId(term);
+        int mask = shortIds.length - 1;
+        int slot = slotOf(packed, mask);
+        while (shortIds[slot + 1] != 0)
+            slot = (slot + 2) & mask;
+        shortIds[slot] = packed;
+        shortIds[slot + 1] = id + 1;
+        if (++shortSize * 4 > shortIds.length)
+            shortIds = grow(shortIds);
+        return id;
+    }
+    
+    private int newId(String term) {
+        terms.add(term);
+        return terms.size() - 1;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  push
+    Purpose:        This function moves the sequence forward by one term (the
+                    n-gram is keyed straight from the packed IDs of the
+                    previous terms unless one of the IDs does not fit, which
+                    lasts until that term leaves the sequence)
+    Input:          id  - The ID of the term
+    Result:         The n-gram ending with the term is counted once the sequence
+                    holds n terms
+    ******************************************************************************/
+    private void push(int id) {
+        if (seen < n - 1)
+            head[(int) seen] = id;
+        else if (id < limit && wideUntil < seen)
+            add((recent << bits) | id, 1);
+        else
+            count(window, id, 1);
+        
+        if (id >= limit)
+            wideUntil = seen + n - 1;
+        recent = ((recent << bits) | (id & (limit - 1))) & recentMask;
+        for (int i = 1; i < n - 1; i++)
+            window[i - 1] = window[i];
+        window[n - 2] = id;
+        seen++;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  count
+    Purpose:        This function adds to the count of an n-gram given as the IDs
+                    of its terms, under a single long key when every ID fits
+                    within its bits and under two longs otherwise
+    Input:          previous  - The IDs of the terms of the n-gram but the last
+                    last  - The ID of the last term
+                    delta  - The amount to add to the count
+    Result:         The count of the n-gram is increased
+    ******************************************************************************/
+    private void count(int[] previous, int last, long delta) {
+        long key = 0;
+        int highest = last;
+        for (int i = 0; i < n - 1; i++) {
+            key = (key << bits) | previous[i];
+            highest = Math.max(highest, previous[i]);
+        }
+        if (highest < limit) {
+            add((key << bits) | last, delta);
+            return;
+        }
+        
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < n; i++) {
+            high = (high << 32) | (low >>> 32);
+            low = (low << 32) | (i < n - 1 ? previous[i] : last);
+        }
+        addWide(high, low, delta);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  add
+    Purpose:        This function adds to the count of an n-gram given as its key
+    Input:          key  - The packed IDs of the terms of the n-gram
+                    delta  - The amount to add to the count
+    Result:         The count of the n-gram is increased
+    ******************************************************************************/
+    private void add(long key, long delta) {
+        int mask = slots.length - 1;
+        int slot = slotOf(key, mask);
+        while (slots[slot + 1] != 0) {
+            if (slots[slot] == key) {
+                slots[slot + 1] += delta;
+                return;
+            }
+            slot = (slot + 2) & mask;
+        }
+        
+        slots[slot] = key;
+        slots[slot + 1] = delta;
+        if (++size * 4 > slots.length)
+            slots = grow(slots);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  addWide
+    Purpose:        This function adds to the count of an n-gram whose IDs do not
+                    all fit within a single long (each slot of the second table
+                    takes four longs: the two halves of the key, the count and
+                    a spare long keeping the slots a power of two apart)
+    Input:          high, low  - The IDs of the terms of the n-gram, 32 bits each
+                    delta  - The amount to add to the count
+    Result:         The count of the n-gram is increased
+    ******************************************************************************/
+    private void addWide(long high, long low, long delta) {
+        if (wideSlots == null)
+            wideSlots = new long[4 * INITIAL_CAPACITY];
+        int mask = wideSlots.length - 1;
+        int slot = wideSlotOf(high, low, mask);
+        while (wideSlots[slot + 2] != 0) {
+            if (wideSlots[slot] == high && wideSlots[slot + 1] == low) {
+                wideSlots[slot + 2] += delta;
+                return;
+            }
+            slot = (slot + 4) & mask;
+        }
+        
+        wideSlots[slot] = high;
+        wideSlots[slot + 1] = low;
+        wideSlots[slot + 2] = delta;
+        if (++wideSize * 8 > wideSlots.length)
+            wideSlots = growWide(wideSlots);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  idAt, gram
+    Purpose:        These functions turn the key of an n-gram back into the IDs
+                    of its terms and into its terms
+    Input:          wide  - Whether the key is held within the second table
+                    high, low  - The key (a single long key is held within low)
+                    position  - The position of the term within the n-gram
+    Result:         The ID of the term at the position, and the terms of the
+                    n-gram separated by spaces
+    ******************************************************************************/
+    private int idAt(boolean wide, long high, long low, int position) {
+        int fromEnd = n - 1 - position;
+        if (!wide)
+            return (int) ((low >>> (bits * fromEnd)) & (limit - 1));
+        return (int) (fromEnd < 2 ? low >>> (32 * fromEnd) : high >>> (32 * (fromEnd - 2)));
+    }
+    
+    private String gram(boolean wide, long high, long low) {
+        StringBuilder gram = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0)
+                gram.append(' ');
+            gram.append(terms.get(idAt(wide, high, low, i)));
+        }
+        return gram.toString();
+    }
+    
+    private static int slotOf(long key, int mask) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return ((int) (mixed ^ (mixed >>> 32)) << 1) & mask;
+    }
+    
+    private static int wideSlotOf(long high, long low, int mask) {
+        long mixed = (high * 0x9E3779B97F4A7C15L ^ low) * 0x9E3779B97F4A7C15L;
+        return ((int) (mixed ^ (mixed >>> 32)) << 2) & mask;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  grow, growWide
+    Purpose:        These functions double the number of slots of a table (each
+                    slot taking two longs, a key and its value, or four longs
+                    within the second table)
+    Input:          oldSlots  - The slots of the table
+    Result:         The larger table, holding every key of the old one
+    ******************************************************************************/
+    private static long[] grow(long[] oldSlots) {
+        long[] slots = new long[oldSlots.length * 2];
+        
+        int mask = slots.length - 1;
+        for (int i = 0; i < oldSlots.length; i += 2) {
+            if (oldSlots[i + 1] == 0)
+                continue;
+            int slot = slotOf(oldSlots[i], mask);
+            while (slots[slot + 1] != 0)
+                slot = (slot + 2) & mask;
+            slots[slot] = oldSlots[i];
+            slots[slot + 1] = oldSlots[i + 1];
+        }
+        return slots;
+    }
+    
+    private static long[] growWide(long[] oldSlots) {
+        long[] slots = new long[oldSlots.length * 2];
+        
+        int mask = slots.length - 1;
+        for (int i = 0; i < oldSlots.length; i += 4) {
+            if (oldSlots[i + 2] == 0)
+                continue;
+            int slot = wideSlotOf(oldSlots[i], oldSlots[i + 1], mask);
+            while (slots[slot + 2] != 0)
+                slot = (slot + 4) & mask;
+            System.arraycopy(oldSlots, i, slots, slot, 3);
+        }
+        return slots;
+    }
+}
\ No newline at end of file
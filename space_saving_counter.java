@@ -0,0 +1,490 @@
+/******************************************************************************
+File Name:    space_saving_counter.java
+Description:  This file holds the approximate counter of the Java term
+              frequency programs, which finds the most frequent terms in a
+              fixed amount of memory with the Space-Saving algorithm. At most
+              a set number of terms are kept; once that many are kept, a new
+              term replaces the term with the lowest count and inherits that
+              count, which is remembered as the error of the new term. Every
+              count is therefore at most its error too high, and no term that
+              is not kept was seen more often than the lowest count kept. With
+              a capacity of M, no count is more than N/M too high after N
+              terms. Counters made by separate workers can be merged, and the
+              merged counter keeps the same guarantees.
+******************************************************************************/
+
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class space_saving_counter implements term_counter {
+    
+    
+    //Class variables
+    public static final int DEFAULT_CAPACITY = 10000;
+    public static final int MAX_CAPACITY = 1 << 24;
+    public static int defaultCapacity = DEFAULT_CAPACITY;
+    
+    
+    //Instance variables
+    private final int capacity;
+    private final byte[][] terms;
+    private final int[] lengths;
+    private final int[] hashes;
+    private final long[] counts;
+    private final long[] errors;
+    private final int[] heap;
+    private final int[] heapIndex;
+    private final int[] slots;
+    private int size = 0;
+    private long base = 0;
+    
+    
+    public space_saving_counter() {
+        this(defaultCapacity);
+    }
+    
+    public space_saving_counter(int capacity) {
+        
+        //The slots of the lookup table are four times the capacity rounded down to a power of two, which must fit within an int
+        this.capacity = Math.max(1, Math.min(capacity, MAX_CAPACITY));
+        terms = new byte[this.capacity][];
+        lengths = new int[this.capacity];
+        hashes = new int[this.capacity];
+        counts = new long[this.capacity];
+        errors = new long[this.capacity];
+        heap = new int[this.capacity];
+        heapIndex = new int[this.capacity];
+        slots = new int[Integer.highestOneBit(this.capacity) * 4];
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  capacity
+    Purpose:        This function checks the number of terms requested for the
+                    counters (--sketch-capacity)
+    Input:          capacity  - The number of terms to keep
+    Result:         The number of terms, or an IllegalArgumentException if a
+                    counter cannot keep that many
+    ******************************************************************************/
+    public static int capacity(int capacity) {
+        if (capacity < 1 || capacity > MAX_CAPACITY)
+            throw new IllegalArgumentException("--sketch-capacity takes from 1 to " + MAX_CAPACITY + " terms, not " + capacity);
+        return capacity;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  capacityFor
+    Purpose:        This function finds the number of terms the counters must keep
+                    so that no count is more than a fraction of the terms
+                    counted too high (--sketch-error)
+    Input:          error  - The fraction, above 0 and at most 1
+    Result:         The number of terms, or an IllegalArgumentException if the
+                    fraction is out of range or needs more terms than a
+                    counter can keep
+    ******************************************************************************/
+    public static int capacityFor(double error) {
+        if (!(error > 0 && error <= 1))
+            throw new IllegalArgumentException("--sketch-error takes a fraction above 0 and at most 1, not " + error);
+        double capacity = Math.ceil(1 / error);
+        if (capacity > MAX_CAPACITY)
+            throw new IllegalArgumentException("--sketch-error=" + error + " needs " + (long) capacity + " terms, more than the "
+                    + MAX_CAPACITY + " a counter can keep (the smallest error is " + 1.0 / MAX_CAPACITY + ")");
+        return (int) capacity;
+    }
+    
+    
+    public void add(byte[] bytes, int offset, int length, long delta) {
+        add(bytes, offset, length, term_count_table.hash(bytes, offset, length), delta, 0);
+    }
+    
+    public void add(String term, long delta) {
+        int entry = find(term);
+        if (entry >= 0) {
+            increase(entry, delta, 0);
+            return;
+        }
+        
+        byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+        add(bytes, 0, bytes.length, delta);
+    }
+    
+    public long get(String term) {
+        int entry = find(term);
+        return entry >= 0 ? counts[entry] : 0;
+    }
+    
+    public long get(byte[] bytes, int offset, int length) {
+        int entry = slots[slot(bytes, offset, length, term_count_table.hash(bytes, offset, length))] - 1;
+        return entry >= 0 ? counts[entry] : 0;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public void forEach(entryConsumer consumer) {
+        for (int entry = 0; entry < size; entry++)
+            consumer.accept(new String(terms[entry], 0, lengths[entry], StandardCharsets.UTF_8), counts[entry]);
+    }
+    
+    public void offerTo(top_k top) {
+        
+        
+        //The String of a term is only created if the count of the term can make the selection
+        for (int entry = 0; entry < size; entry++) {
+            if (top.admits(counts[entry]))
+                top.offer(new String(terms[entry], 0, lengths[entry], StandardCharsets.UTF_8), counts[entry]);
+        }
+    }
+    
+    public void addAll(term_counter other, int shard, int shards) {
+        if (!(other instanceof space_saving_counter)) {
+            other.forEach((term, count) -> {
+                if (term_counter.shardOf(term_count_table.hash(term), shards) == shard)
+                    add(term, count);
+            });
+            return;
+        }
+        merge((space_saving_counter) other, shard, shards);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  error
+    Purpose:        This function tells how much the count of a term may be too
+                    high
+    Input:          term  - The term
+    Result:         The error of the count of the term, or the floor if the term
+                    is not kept (its true count is at most the floor)
+    ******************************************************************************/
+    public long error(String term) {
+        int entry = find(term);
+        return entry >= 0 ? errors[entry] : floor();
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  floor
+    Purpose:        This function tells how often a term that is not kept may have
+                    been seen
+    Result:         The lowest count kept once the counter is full (0 before,
+                    when every term seen is kept with its exact count, unless
+                    counters dropping terms were merged into it)
+    ******************************************************************************/
+    public long floor() {
+        return size == capacity ? Math.max(base, counts[heap[0]]) : base;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  add
+    Purpose:        This function adds to the count of a term whose hash is known.
+                    A term that is not kept takes the place of the term with the
+                    lowest count once the counter is full
+    Input:          bytes  - The bytes holding the term
+                    offset  - The index of the first byte of the term
+                    length  - The number of bytes of the term
+                    hash  - The hash of the term
+                    delta  - The amount to add to the count
+                    error  - The amount the delta itself may be too high
+    Result:         The count of the term is increased
+    ******************************************************************************/
+    private void add(byte[] bytes, int offset, int length, int hash, long delta, long error) {
+        int slot = slot(bytes, offset, length, hash);
+        int entry = slots[slot] - 1;
+        if (entry >= 0) {
+            increase(entry, delta, error);
+            return;
+        }
+        
+        long inherited = floor();
+        if (size < capacity) {
+            entry = size;
+            heap[size] = entry;
+            heapIndex[entry] = size;
+            size++;
+        }
+        else {
+            
+            
+            //The term with the lowest count makes room, and the new term inherits its count as an error
+            entry = heap[0];
+            unlink(entry);
+            slot = slot(bytes, offset, length, hash);
+        }
+        
+        if (terms[entry] == null || terms[entry].length < length)
+            terms[entry] = new byte[Math.max(16, length)];
+        System.arraycopy(bytes, offset, terms[entry], 0, length);
+        lengths[entry] = length;
+        hashes[entry] = hash;
+        counts[entry] = inherited;
+        errors[entry] = inherited;
+        slots[slot] = entry + 1;
+        siftUp(heapIndex[entry]);
+        increase(entry, delta, error);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  increase
+    Purpose:        This function adds to the count and the error of a term kept
+    Input:          entry  - The term kept
+                    delta  - The amount to add to the count
+                    error  - The amount to add to the error
+    Result:         The count is increased and the term moves down the heap
+    ******************************************************************************/
+    private void increase(int entry, long delta, long error) {
+        counts[entry] += delta;
+        errors[entry] += error;
+        siftDown(heapIndex[entry]);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  merge
+    Purpose:        This function merges the counter of another worker. A term
+                    kept by only one of the counters may have been seen up to the
+                    floor of the other one, so that floor is added to both its
+                    count and its error; the terms with the highest merged counts
+                    are then kept
+    Input:          other  - The counter of the other worker
+                    shard  - The shard whose terms are merged
+                    shards  - The total number of shards
+    Result:         The terms of the shard are merged into this counter
+    ******************************************************************************/
+    private void merge(space_saving_counter other, int shard, int shards) {
+        long floor = floor();
+        long otherFloor = other.floor();
+        
+        List<long[]> merged = new ArrayList<long[]>();
+        byte[][] mergedTerms = new byte[size + other.size][];
+        for (int entry = 0; entry < size; entry++) {
+            int match = other.slots[other.slot(terms[entry], 0, lengths[entry], hashes[entry])] - 1;
+            long count = counts[entry] + (match >= 0 ? other.counts[match] : otherFloor);
+            long error = errors[entry] + (match >= 0 ? other.errors[match] : otherFloor);
+            mergedTerms[merged.size()] = Arrays.copyOf(terms[entry], lengths[entry]);
+            merged.add(new long[] {count, error, hashes[entry], merged.size()});
+        }
+        for (int entry = 0; entry < other.size; entry++) {
+            if (term_counter.shardOf(other.hashes[entry], shards) != shard)
+                continue;
+            if (slots[slot(other.terms[entry], 0, other.lengths[entry], other.hashes[entry])] != 0)
+                continue;
+            mergedTerms[merged.size()] = Arrays.copyOf(other.terms[entry], other.lengths[entry]);
+            merged.add(new long[] {other.counts[entry] + floor, other.errors[entry] + floor, other.hashes[entry], merged.size()});
+        }
+        
+        
+        //Only the terms with the highest counts are kept; the heap is rebuilt from them
+        merged.sort((term1, term2) -> Long.compare(term2[0], term1[0]));
+        Arrays.fill(slots, 0);
+        size = 0;
+        base = 0;
+        for (long[] term : merged) {
+            if (size == capacity)
+                break;
+            byte[] bytes = mergedTerms[(int) term[3]];
+            add(bytes, 0, bytes.length, (int) term[2], term[0], term[1]);
+        }
+        base = floor + otherFloor;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  find
+    Purpose:        This function looks up a term given as a String
+    Input:          term  - The term
+    Result:         The entry of the term, or -1 if the term is not kept
+    ******************************************************************************/
+    private int find(String term) {
+        int hash = 0;
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+                return slots[slot(bytes, 0, bytes.length, term_count_table.hash(bytes, 0, bytes.length))] - 1;
+            }
+            hash = 31 * hash + c;
+        }
+        
+        int mask = slots.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (hashes[entry] == hash && matches(entry, term))
+                return entry;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  slot
+    Purpose:        This function finds the slot of a term given as bytes
+    Input:          bytes  - The bytes holding the term
+                    offset  - The index of the first byte of the term
+                    length  - The number of bytes of the term
+                    hash  - The hash of the term
+    Result:         The slot holding the term, or the empty slot where it would
+                    be placed
+    ******************************************************************************/
+    private int slot(byte[] bytes, int offset, int length, int hash) {
+        int mask = slots.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (hashes[entry] == hash && matches(entry, bytes, offset, length))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  unlink
+    Purpose:        This function removes a term from the slots, moving back the
+                    terms placed after it so that none of them is lost
+    Input:          entry  - The term to remove
+    Result:         The term can no longer be looked up
+    ******************************************************************************/
+    private void unlink(int entry) {
+        int mask = slots.length - 1;
+        int hole = (hashes[entry] ^ (hashes[entry] >>> 16)) & mask;
+        while (slots[hole] != entry + 1)
+            hole = (hole + 1) & mask;
+        
+        for (int next = (hole + 1) & mask; slots[next] != 0; next = (next + 1) & mask) {
+            int hash = hashes[slots[next] - 1];
+            int home = (hash ^ (hash >>> 16)) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                slots[hole] = slots[next];
+                hole = next;
+            }
+        }
+        slots[hole] = 0;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  matches
+    Purpose:        These functions compare a term kept with another term
+    Input:          entry  - The term kept
+                    bytes, offset, length  - The bytes of the other term
+                    term  - The other term as an ASCII String
+    Result:         Whether both terms are the same
+    ******************************************************************************/
+    private boolean matches(int entry, byte[] bytes, int offset, int length) {
+        if (lengths[entry] != length)
+            return false;
+        byte[] kept = terms[entry];
+        for (int i = 0; i < length; i++) {
+            if (kept[i] != bytes[offset + i])
+                return false;
+        }
+        return true;
+    }
+    
+    private boolean matches(int entry, String term) {
+        if (lengths[entry] != term.length())
+            return false;
+        byte[] kept = terms[entry];
+        for (int i = 0; i < lengths[entry]; i++) {
+            if (kept[i] != term.charAt(i))
+                return false;
+        }
+        return true;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  siftUp, siftDown
+    Purpose:        These functions restore the order of the min-heap of counts
+                    after the count at a position of the heap changed
+    Input:          position  - The position within the heap
+    Result:         The term with the lowest count is at the top of the heap
+    ******************************************************************************/
+    private void siftUp(int position) {
+        int entry = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[entry])
+                break;
+            place(heap[parent], position);
+            position = parent;
+        }
+        place(entry, position);
+    }
+    
+    private void siftDown(int position) {
+        int entry = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]])
+                child++;
+            if (counts[entry] <= counts[heap[child]])
+                break;
+            place(heap[child], position);
+            position = child;
+        }
+        place(entry, position);
+    }
+    
+    private void place(int entry, int position) {
+        heap[position] = entry;
+        heapIndex[entry] = position;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  describe
+    Purpose:        This function states the error bounds of the top terms found
+                    by the approximate counters of every shard
+    Input:          counters  - The counters of the shards
+                    top  - The top terms selected from the counters
+    Result:         A line giving how much the counts printed may be too high,
+                    how often a term that was not kept may have been seen, and
+                    whether the terms printed are certainly the top terms
+    ******************************************************************************/
+    public static String describe(List<term_counter> counters, top_k top) {
+        Set<String> selected = new HashSet<String>();
+        long floor = 0, maxError = 0, lowest = Long.MAX_VALUE, capacity = 0;
+        for (Map.Entry<String, Long> term : top.result()) {
+            selected.add(term.getKey());
+            for (term_counter counter : counters) {
+                if (counter instanceof space_saving_counter && counter.get(term.getKey()) > 0) {
+                    long error = ((space_saving_counter) counter).error(term.getKey());
+                    maxError = Math.max(maxError, error);
+                    lowest = Math.min(lowest, term.getValue() - error);
+                }
+            }
+        }
+        
+        
+        //The top is certain if no other term, kept or not, can have been seen more often than the least certain term printed
+        long[] highestOther = {0};
+        for (term_counter counter : counters) {
+            if (!(counter instanceof space_saving_counter))
+                continue;
+            space_saving_counter sketch = (space_saving_counter) counter;
+            floor = Math.max(floor, sketch.floor());
+            capacity = sketch.capacity;
+            sketch.forEach((term, count) -> {
+                if (!selected.contains(term))
+                    highestOther[0] = Math.max(highestOther[0], count);
+            });
+        }
+        boolean certain = selected.isEmpty() || lowest >= Math.max(floor, highestOther[0]);
+        
+        return String.format(Locale.ROOT,
+                "space-saving: %d terms kept per counter; the counts printed are at most %d too high, "
+                + "terms not kept were seen at most %d times; the top %d is %s",
+                capacity, maxError, floor, selected.size(), certain ? "certain" : "not certain");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,239 @@
+/******************************************************************************
+File Name:    stop_word_filter.java
+Description:  This file holds the stop word filter shared by the Java term
+              frequency programs. The stop words are compiled once into a
+              trie over the letters a to z, stored within a single array of
+              child indexes. Checking a term walks the trie one byte at a time
+              straight from the bytes of the tokenizer, without hashing the
+              term or creating a String. A copy of stop_words.txt is built in,
+              so the default list is compiled without reading or splitting a
+              file.
+              
+              Stop words holding other letters (which only the Unicode mode
+              of the tokenizer can match) are case folded and normalized to
+              NFC the way the tokenizer does, and kept aside within a
+              term_count_table that is only looked up for terms leaving the
+              letters a to z.
+******************************************************************************/
+
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.Normalizer;
+import java.util.Arrays;
+
+public class stop_word_filter {
+    
+    
+    //Class variables
+    public static final String DEFAULT_PATH = "stop_words.txt";
+    private static final int LETTERS = 26;
+    private static final String[] DEFAULT_WORDS = {
+        "a", "able", "about", "across", "after", "all", "almost", "also", "am",
+        "among", "an", "and", "any", "are", "as", "at", "be", "because", "been",
+        "but", "by", "can", "cannot", "could", "dear", "did", "do", "does",
+        "either", "else", "ever", "every", "for", "from", "get", "got", "had",
+        "has", "have", "he", "her", "hers", "him", "his", "how", "however", "i",
+        "if", "in", "into", "is", "it", "its", "just", "least", "let", "like",
+        "likely", "may", "me", "might", "most", "must", "my", "neither", "no",
+        "nor", "not", "of", "off", "often", "on", "only", "or", "other", "our",
+        "own", "rather", "said", "say", "says", "she", "should", "since", "so",
+        "some", "than", "that", "the", "their", "them", "then", "there", "these",
+        "they", "this", "tis", "to", "too", "twas", "us", "wants", "was", "we",
+        "were", "what", "when", "where", "which", "while", "who", "whom", "why",
+        "will", "with", "would", "yet", "you", "your"
+    };
+    
+    
+    //Instance variables
+    private int[] children = new int[LETTERS * 64];
+    private boolean[] terminal = new boolean[64];
+    private int nodes = 1;
+    private int size = 0;
+    private term_count_table others = null;
+    
+    
+    /******************************************************************************
+    Function Name:  load
+    Purpose:        This function reads a list of stop words from a file and
+                    compiles it into a filter
+    Input:          path  - The path to the list of stop words
+    Result:         The compiled filter
+    ******************************************************************************/
+    public static stop_word_filter load(String path) throws IOException {
+        return parse(new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8));
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  defaults
+    Purpose:        This function compiles the built-in copy of stop_words.txt
+                    into a filter, which spares reading the file and splitting
+                    the list when a program starts
+    Result:         The compiled filter
+    ******************************************************************************/
+    public static stop_word_filter defaults() {
+        stop_word_filter filter = new stop_word_filter();
+        for (int i = 0; i < DEFAULT_WORDS.length; i++)
+            filter.add(DEFAULT_WORDS[i]);
+        return filter;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  parse
+    Purpose:        This function compiles a list of stop words separated by
+                    commas or whitespace into a filter (the words are case
+                    folded by add, the same way as the terms)
+    Input:          list  - The list of stop words
+    Result:         The compiled filter
+    ******************************************************************************/
+    public static stop_word_filter parse(String list) {
+        stop_word_filter filter = new stop_word_filter();
+        String[] words = list.split("[,\\s]+");
+        for (int i = 0; i < words.length; i++)
+            filter.add(words[i]);
+        return filter;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  add
+    Purpose:        This function adds a stop word to the trie, or folds it first
+                    if it holds anything other than the letters a to z
+    Input:          word  - The stop word
+    Result:         The stop word is placed within the trie or kept aside
+    ******************************************************************************/
+    private void add(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            int letter = word.charAt(i) - 'a';
+            if (letter < 0 || letter >= LETTERS) {
+                addFolded(word);
+                return;
+            }
+        }
+        
+        int node = 0;
+        for (int i = 0; i < word.length(); i++) {
+            int letter = word.charAt(i) - 'a';
+            int child = children[node * LETTERS + letter];
+            if (child == 0) {
+                child = newNode();
+                children[node * LETTERS + letter] = child;
+            }
+            node = child;
+        }
+        
+        if (node != 0 && !terminal[node]) {
+            terminal[node] = true;
+            size++;
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  addFolded
+    Purpose:        This function case folds a stop word holding other letters
+                    the way text_tokenizer folds the letters of a term, and adds
+                    both the folded word and its NFC form (the text matches the
+                    first as written and the second once normalized by --nfc);
+                    words holding anything other than letters and marks can
+                    never match a term, so they are skipped
+    Input:          word  - The stop word
+    Result:         The folded stop word is placed within the trie if only the
+                    letters a to z are left, or kept aside otherwise
+    ******************************************************************************/
+    private void addFolded(String word) {
+        StringBuilder folded = new StringBuilder();
+        boolean letters = true;
+        for (int i = 0; i < word.length(); i += Character.charCount(word.codePointAt(i))) {
+            int codePoint = word.codePointAt(i);
+            int type = Character.getType(codePoint);
+            if (Character.isLetter(codePoint))
+                codePoint = text_tokenizer.fold(codePoint);
+            else if (type != Character.NON_SPACING_MARK && type != Character.COMBINING_SPACING_MARK
+                    && type != Character.ENCLOSING_MARK)
+                return;
+            folded.appendCodePoint(codePoint);
+            letters &= codePoint >= 'a' && codePoint <= 'z';
+        }
+        
+        String term = folded.toString();
+        if (letters) {
+            if (!term.isEmpty())
+                add(term);
+            return;
+        }
+        
+        if (others == null)
+            others = new term_count_table();
+        for (String form : new String[] {term, Normalizer.normalize(term, Normalizer.Form.NFC)}) {
+            if (others.get(form) == 0) {
+                others.add(form, 1);
+                size++;
+            }
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  newNode
+    Purpose:        This function adds an empty node to the trie
+    Result:         The index of the new node
+    ******************************************************************************/
+    private int newNode() {
+        if (nodes == terminal.length) {
+            terminal = Arrays.copyOf(terminal, nodes * 2);
+            children = Arrays.copyOf(children, nodes * 2 * LETTERS);
+        }
+        return nodes++;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  contains
+    Purpose:        These functions check if a term is a stop word (the stop
+                    words kept aside are only looked up once the term leaves
+                    the trie)
+    Input:          bytes, offset, length  - The bytes of the term
+                    word  - The term as a String
+    Result:         Whether the term is a stop word
+    ******************************************************************************/
+    public boolean contains(byte[] bytes, int offset, int length) {
+        int node = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int letter = bytes[i] - 'a';
+            if (letter < 0 || letter >= LETTERS)
+                return others != null && others.get(bytes, offset, length) != 0;
+            node = children[node * LETTERS + letter];
+            if (node == 0)
+                return others != null && others.get(bytes, offset, length) != 0;
+        }
+        return terminal[node];
+    }
+    
+    public boolean contains(String word) {
+        int node = 0;
+        for (int i = 0; i < word.length(); i++) {
+            int letter = word.charAt(i) - 'a';
+            if (letter < 0 || letter >= LETTERS)
+                return others != null && others.get(word) != 0;
+            node = children[node * LETTERS + letter];
+            if (node == 0)
+                return others != null && others.get(word) != 0;
+        }
+        return terminal[node];
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  size
+    Purpose:        This function counts the stop words of the filter
+    Result:         The number of stop words
+    ******************************************************************************/
+    public int size() {
+        return size;
+    }
+}
\ No newline at end of file
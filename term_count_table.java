@@ -0,0 +1,308 @@
+/******************************************************************************
+File Name:    term_count_table.java
+Description:  This file holds a counter built for term frequencies. The table
+              uses open addressing: each slot keeps the hash of its term, the
+              location of the bytes of the term within a shared arena, and the
+              count of the term in parallel primitive arrays. A term can be
+              looked up straight from the buffer of the tokenizer, so counting
+              a term that was seen before neither creates a String nor boxes
+              its count.
+******************************************************************************/
+
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class term_count_table implements term_counter {
+    
+    
+    //Class variables
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int INITIAL_ARENA = 1024;
+    
+    
+    //Instance variables (the arrays are only allocated once the first term is added, as a corpus can hold many small or empty tables)
+    private int[] hashes = new int[0];
+    private int[] offsets = new int[0];
+    private int[] lengths = new int[0];
+    private long[] counts = new long[0];
+    private byte[] arena = new byte[0];
+    private int arenaSize = 0;
+    private int size = 0;
+    
+    
+    /******************************************************************************
+    Function Name:  hash
+    Purpose:        This function hashes the bytes of a term (for ASCII terms the
+                    result is the same as String.hashCode)
+    Input:          bytes  - The bytes holding the term
+                    offset  - The index of the first byte of the term
+                    length  - The number of bytes of the term
+    Result:         The hash of the term
+    ******************************************************************************/
+    public static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++)
+            hash = 31 * hash + (bytes[i] & 0xFF);
+        return hash;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  hash
+    Purpose:        This function hashes the UTF-8 bytes of a term given as a
+                    String, so that a term is sent to the same shard whether it
+                    is held as bytes or as a String (the bytes are only
+                    created for terms that are not ASCII)
+    Input:          term  - The term
+    Result:         The hash of the term
+    ******************************************************************************/
+    public static int hash(String term) {
+        int hash = 0;
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+                return hash(bytes, 0, bytes.length);
+            }
+            hash = 31 * hash + c;
+        }
+        return hash;
+    }
+    
+    public void add(byte[] bytes, int offset, int length, long delta) {
+        add(bytes, offset, length, hash(bytes, offset, length), delta);
+    }
+    
+    public void add(String term, long delta) {
+        int slot = find(term);
+        if (slot >= 0) {
+            counts[slot] += delta;
+            return;
+        }
+        
+        byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+        add(bytes, 0, bytes.length, delta);
+    }
+    
+    public long get(String term) {
+        int slot = find(term);
+        return slot >= 0 ? counts[slot] : 0;
+    }
+    
+    public long get(byte[] bytes, int offset, int length) {
+        int slot = find(bytes, offset, length, hash(bytes, offset, length));
+        return slot >= 0 ? counts[slot] : 0;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public void forEach(entryConsumer consumer) {
+        for (int slot = 0; slot < counts.length; slot++) {
+            if (lengths[slot] != 0)
+                consumer.accept(new String(arena, offsets[slot], lengths[slot], StandardCharsets.UTF_8), counts[slot]);
+        }
+    }
+    
+    public void offerTo(top_k top) {
+        
+        
+        //The String of a term is only created if the count of the term can make the selection
+        for (int slot = 0; slot < counts.length; slot++) {
+            if (lengths[slot] != 0 && top.admits(counts[slot]))
+                top.offer(new String(arena, offsets[slot], lengths[slot], StandardCharsets.UTF_8), counts[slot]);
+        }
+    }
+    
+    public void addAll(term_counter other, int shard, int shards) {
+        if (!(other instanceof term_count_table)) {
+            other.forEach((term, count) -> {
+                if (term_counter.shardOf(hash(term), shards) == shard)
+                    add(term, count);
+            });
+            return;
+        }
+        
+        term_count_table table = (term_count_table) other;
+        for (int slot = 0; slot < table.counts.length; slot++) {
+            if (table.lengths[slot] != 0 && term_counter.shardOf(table.hashes[slot], shards) == shard)
+                add(table.arena, table.offsets[slot], table.lengths[slot], table.hashes[slot], table.counts[slot]);
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  add
+    Purpose:        This function adds to the count of a term whose hash is known,
+                    placing the term within the table the first time it is seen
+    Input:          bytes  - The bytes holding the term
+                    offset  - The index of the first byte of the term
+                    length  - The number of bytes of the term
+                    hash  - The hash of the term
+                    delta  - The amount to add to the count
+    Result:         The count of the term is increased
+    ******************************************************************************/
+    private void add(byte[] bytes, int offset, int length, int hash, long delta) {
+        if (counts.length == 0)
+            grow();
+        
+        int mask = counts.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        
+        while (lengths[slot] != 0) {
+            if (hashes[slot] == hash && matches(slot, bytes, offset, length)) {
+                counts[slot] += delta;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        
+        if (arenaSize + length > arena.length)
+            arena = Arrays.copyOf(arena, Math.max(Math.max(arena.length * 2, INITIAL_ARENA), arenaSize + length));
+        System.arraycopy(bytes, offset, arena, arenaSize, length);
+        
+        hashes[slot] = hash;
+        offsets[slot] = arenaSize;
+        lengths[slot] = length;
+        counts[slot] = delta;
+        arenaSize += length;
+        
+        if (++size * 2 > counts.length)
+            grow();
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  find
+    Purpose:        This function looks up the slot of a term given as a String
+    Input:          term  - The term
+    Result:         The slot of the term, or -1 if the term is not within the
+                    table (or is not ASCII, in which case the caller falls back
+                    to the bytes of the term)
+    ******************************************************************************/
+    private int find(String term) {
+        if (size == 0)
+            return -1;
+        
+        int hash = 0;
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (c >= 0x80)
+                return findBytes(term);
+            hash = 31 * hash + c;
+        }
+        
+        int mask = counts.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (lengths[slot] != 0) {
+            if (hashes[slot] == hash && matches(slot, term))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  findBytes
+    Purpose:        This function looks up the slot of a term that is not ASCII
+                    through the UTF-8 bytes of the term
+    Input:          term  - The term
+    Result:         The slot of the term, or -1 if the term is not within the table
+    ******************************************************************************/
+    private int findBytes(String term) {
+        byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+        return find(bytes, 0, bytes.length, hash(bytes, 0, bytes.length));
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  find
+    Purpose:        This function looks up the slot of a term given as bytes
+    Input:          bytes  - The bytes holding the term
+                    offset  - The index of the first byte of the term
+                    length  - The number of bytes of the term
+                    hash  - The hash of the term
+    Result:         The slot of the term, or -1 if the term is not within the table
+    ******************************************************************************/
+    private int find(byte[] bytes, int offset, int length, int hash) {
+        if (size == 0)
+            return -1;
+        
+        int mask = counts.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (lengths[slot] != 0) {
+            if (hashes[slot] == hash && matches(slot, bytes, offset, length))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  matches
+    Purpose:        These functions compare the term of a slot with another term
+    Input:          slot  - The slot of the table
+                    bytes, offset, length  - The bytes of the other term
+                    term  - The other term as an ASCII String
+    Result:         Whether both terms are the same
+    ******************************************************************************/
+    private boolean matches(int slot, byte[] bytes, int offset, int length) {
+        if (lengths[slot] != length)
+            return false;
+        int start = offsets[slot];
+        for (int i = 0; i < length; i++) {
+            if (arena[start + i] != bytes[offset + i])
+                return false;
+        }
+        return true;
+    }
+    
+    private boolean matches(int slot, String term) {
+        if (lengths[slot] != term.length())
+            return false;
+        int start = offsets[slot];
+        for (int i = 0; i < lengths[slot]; i++) {
+            if (arena[start + i] != term.charAt(i))
+                return false;
+        }
+        return true;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  grow
+    Purpose:        This function doubles the number of slots of the table, or
+                    allocates the first ones (the bytes of the terms stay where
+                    they are within the arena)
+    Result:         Every term is placed within the larger table
+    ******************************************************************************/
+    private void grow() {
+        int[] oldHashes = hashes;
+        int[] oldOffsets = offsets;
+        int[] oldLengths = lengths;
+        long[] oldCounts = counts;
+        
+        int capacity = Math.max(oldCounts.length * 2, INITIAL_CAPACITY);
+        hashes = new int[capacity];
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        counts = new long[capacity];
+        
+        int mask = capacity - 1;
+        for (int i = 0; i < oldCounts.length; i++) {
+            if (oldLengths[i] == 0)
+                continue;
+            int slot = (oldHashes[i] ^ (oldHashes[i] >>> 16)) & mask;
+            while (lengths[slot] != 0)
+                slot = (slot + 1) & mask;
+            hashes[slot] = oldHashes[i];
+            offsets[slot] = oldOffsets[i];
+            lengths[slot] = oldLengths[i];
+            counts[slot] = oldCounts[i];
+        }
+    }
+}
\ No newline at end of file
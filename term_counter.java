@@ -0,0 +1,139 @@
+/******************************************************************************
+File Name:    term_counter.java
+Description:  This file holds the abstraction used by the Java term frequency
+              programs to count terms. Three implementations are available: the
+              term_count_table, which counts terms straight from the bytes of
+              the tokenizer, a HashMap based counter that is kept so the two
+              can be compared, and the space_saving_counter, which keeps a
+              fixed number of terms and only approximates their counts.
+******************************************************************************/
+
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+public interface term_counter {
+    
+    
+    /******************************************************************************
+    Interface:      entryConsumer
+    Description:    Receives the terms of a counter along with their counts
+    ******************************************************************************/
+    interface entryConsumer {
+        void accept(String term, long count);
+    }
+    
+    
+    //Adds to the count of the term held within a part of a byte array (UTF-8)
+    void add(byte[] bytes, int offset, int length, long delta);
+    
+    
+    //Adds to the count of the term
+    void add(String term, long delta);
+    
+    
+    //Returns the count of the term (0 if the term was never counted)
+    long get(String term);
+    
+    
+    //Returns the count of the term held within a part of a byte array (UTF-8)
+    long get(byte[] bytes, int offset, int length);
+    
+    
+    //Returns the number of distinct terms
+    int size();
+    
+    
+    //Passes every term and its count to the consumer
+    void forEach(entryConsumer consumer);
+    
+    
+    //Adds the counts of the terms of another counter that belong to the shard given
+    void addAll(term_counter other, int shard, int shards);
+    
+    
+    //Offers every term and its count to a top K selection
+    default void offerTo(top_k top) {
+        forEach(top::offer);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  create
+    Purpose:        This function creates a counter of the kind requested
+    Input:          kind  - "hashmap" for the HashMap based counter,
+                            "space-saving" for the approximate counter,
+                            anything else for the term_count_table
+    Result:         A new, empty counter
+    ******************************************************************************/
+    static term_counter create(String kind) {
+        if ("hashmap".equals(kind))
+            return new hashMapCounter();
+        if ("space-saving".equals(kind))
+            return new space_saving_counter();
+        return new term_count_table();
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  shardOf
+    Purpose:        This function decides which shard a term belongs to based on
+                    the hash of the term
+    Input:          hash  - The hash of the term, always term_count_table.hash
+                            of its UTF-8 bytes so that every counter and every
+                            program places a term within the same shard
+                    shards  - The total number of shards
+    Result:         The index of the shard owning the term
+    ******************************************************************************/
+    static int shardOf(int hash, int shards) {
+        return Math.floorMod(hash ^ (hash >>> 16), shards);
+    }
+    
+    
+    /******************************************************************************
+    Class:          hashMapCounter
+    Description:    A counter that keeps the terms within a HashMap
+    Data Fields:    counts  - The map of the terms and their counts
+    ******************************************************************************/
+    class hashMapCounter implements term_counter {
+        
+        
+        //Instance variables
+        private final Map<String, Long> counts = new HashMap<String, Long>();
+        
+        
+        public void add(byte[] bytes, int offset, int length, long delta) {
+            add(new String(bytes, offset, length, StandardCharsets.UTF_8), delta);
+        }
+        
+        public void add(String term, long delta) {
+            counts.merge(term, delta, Long::sum);
+        }
+        
+        public long get(String term) {
+            return counts.getOrDefault(term, 0L);
+        }
+        
+        public long get(byte[] bytes, int offset, int length) {
+            return get(new String(bytes, offset, length, StandardCharsets.UTF_8));
+        }
+        
+        public int size() {
+            return counts.size();
+        }
+        
+        public void forEach(entryConsumer consumer) {
+            for (Entry<String, Long> entry : counts.entrySet())
+                consumer.accept(entry.getKey(), entry.getValue());
+        }
+        
+        public void addAll(term_counter other, int shard, int shards) {
+            other.forEach((term, count) -> {
+                if (shardOf(term_count_table.hash(term), shards) == shard)
+                    add(term, count);
+            });
+        }
+    }
+}
\ No newline at end of file
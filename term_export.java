@@ -0,0 +1,284 @@
+/******************************************************************************
+File Name:    term_export.java
+Description:  This file holds the export of the full frequency table of the
+              Java term frequency programs, for jobs that need every count
+              rather than the top terms. The terms are sorted and given dense
+              IDs (their rank in the sorted order), and three files are
+              written into a folder:
+              
+              terms.txt   - The terms in the order of their IDs, one per line
+                            (UTF-8, sorted byte by byte).
+              terms.idx   - The magic bytes "TFI1", the number of terms as a
+                            4 byte int, then the offset of the line of each
+                            term within terms.txt as an 8 byte long, followed
+                            by the size of terms.txt.
+              counts.bin  - The magic bytes "TFC1", the width of each count as
+                            a 4 byte int (4 or 8, 4 unless a count needs
+                            more), then the count of each term in the order
+                            of the IDs.
+              
+              Every number is big-endian and has a fixed width, so the files
+              can be memory-mapped: a term is found by a binary search over
+              the index and its count read at its ID, without loading the
+              table into the heap.
+******************************************************************************/
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+public class term_export {
+    
+    
+    //Class variables
+    public static final String DICTIONARY = "terms.txt";
+    public static final String INDEX = "terms.idx";
+    public static final String COUNTS = "counts.bin";
+    private static final byte[] INDEX_MAGIC = {'T', 'F', 'I', '1'};
+    private static final byte[] COUNTS_MAGIC = {'T', 'F', 'C', '1'};
+    private static final int HEADER = 8;
+    
+    
+    //Instance variables
+    private final MappedByteBuffer dictionary;
+    private final MappedByteBuffer index;
+    private final MappedByteBuffer counts;
+    private final int size;
+    private final int width;
+    
+    
+    private term_export(MappedByteBuffer dictionary, MappedByteBuffer index, MappedByteBuffer counts) {
+        this.dictionary = dictionary;
+        this.index = index;
+        this.counts = counts;
+        this.size = index.getInt(4);
+        this.width = counts.getInt(4);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  write
+    Purpose:        This function exports the terms of one or more counters (such
+                    as the shards of a merge, which never share a term) into a
+                    folder. Each file is written next to its final path and then
+                    moved into place
+    Input:          directory  - The folder receiving the files
+                    counters  - The counters to export
+    Result:         The dictionary, the index and the counts are written
+    ******************************************************************************/
+    public static void write(Path directory, List<term_counter> counters) throws IOException {
+        int total = 0;
+        for (term_counter counter : counters)
+            total += counter.size();
+        
+        byte[][] terms = new byte[total][];
+        long[] termCounts = new long[total];
+        int[] next = {0};
+        for (term_counter counter : counters) {
+            counter.forEach((term, count) -> {
+                terms[next[0]] = term.getBytes(StandardCharsets.UTF_8);
+                termCounts[next[0]++] = count;
+            });
+        }
+        
+        
+        //The IDs follow the order of the bytes of the terms, the same order the lookups search
+        Integer[] order = new Integer[total];
+        for (int i = 0; i < total; i++)
+            order[i] = i;
+        Arrays.sort(order, (term1, term2) -> Arrays.compareUnsigned(terms[term1], terms[term2]));
+        
+        long maxCount = 0;
+        for (long count : termCounts)
+            maxCount = Math.max(maxCount, count);
+        int countWidth = maxCount <= Integer.MAX_VALUE ? 4 : 8;
+        
+        Files.createDirectories(directory);
+        long[] offsets = new long[total + 1];
+        Path partial = partial(directory, DICTIONARY);
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(partial))) {
+            for (int id = 0; id < total; id++) {
+                byte[] term = terms[order[id]];
+                output.write(term);
+                output.write('\n');
+                offsets[id + 1] = offsets[id] + term.length + 1;
+            }
+        }
+        Files.move(partial, directory.resolve(DICTIONARY), StandardCopyOption.REPLACE_EXISTING);
+        
+        partial = partial(directory, INDEX);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial)))) {
+            output.write(INDEX_MAGIC);
+            output.writeInt(total);
+            for (long offset : offsets)
+                output.writeLong(offset);
+        }
+        Files.move(partial, directory.resolve(INDEX), StandardCopyOption.REPLACE_EXISTING);
+        
+        partial = partial(directory, COUNTS);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial)))) {
+            output.write(COUNTS_MAGIC);
+            output.writeInt(countWidth);
+            for (int id = 0; id < total; id++) {
+                if (countWidth == 4)
+                    output.writeInt((int) termCounts[order[id]]);
+                else
+                    output.writeLong(termCounts[order[id]]);
+            }
+        }
+        Files.move(partial, directory.resolve(COUNTS), StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    private static Path partial(Path directory, String name) {
+        return directory.resolve(name + ".partial");
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  open
+    Purpose:        This function memory-maps an export for lookups
+    Input:          directory  - The folder holding the files of the export
+    Result:         The export, read straight from the mapped files
+    ******************************************************************************/
+    public static term_export open(Path directory) throws IOException {
+        MappedByteBuffer dictionary = map(directory.resolve(DICTIONARY), null);
+        MappedByteBuffer index = map(directory.resolve(INDEX), INDEX_MAGIC);
+        MappedByteBuffer counts = map(directory.resolve(COUNTS), COUNTS_MAGIC);
+        return new term_export(dictionary, index, counts);
+    }
+    
+    private static MappedByteBuffer map(Path path, byte[] magic) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (magic != null) {
+                for (int i = 0; i < magic.length; i++) {
+                    if (buffer.limit() < HEADER || buffer.get(i) != magic[i])
+                        throw new IOException(path + " is not part of a term frequency export");
+                }
+            }
+            return buffer;
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  size
+    Purpose:        This function tells how many terms were exported
+    Result:         The number of terms (the IDs go from 0 to size - 1)
+    ******************************************************************************/
+    public int size() {
+        return size;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  id
+    Purpose:        This function finds the ID of a term through a binary search
+                    over the mapped index
+    Input:          term  - The term
+    Result:         The ID of the term, or -1 if the term was not exported
+    ******************************************************************************/
+    public int id(String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int order = compare(middle, key);
+            if (order < 0)
+                low = middle + 1;
+            else if (order > 0)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  term
+    Purpose:        This function reads the term of an ID
+    Input:          id  - The ID of the term
+    Result:         The term
+    ******************************************************************************/
+    public String term(int id) {
+        int start = (int) index.getLong(HEADER + 8 * id);
+        byte[] bytes = new byte[(int) index.getLong(HEADER + 8 * (id + 1)) - start - 1];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = dictionary.get(start + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  count
+    Purpose:        These functions read the count of a term given by its ID or
+                    by the term itself
+    Input:          id  - The ID of the term
+                    term  - The term
+    Result:         The count of the term (0 if the term was not exported)
+    ******************************************************************************/
+    public long count(int id) {
+        return width == 4 ? counts.getInt(HEADER + 4 * id) : counts.getLong(HEADER + 8 * id);
+    }
+    
+    public long count(String term) {
+        int id = id(term);
+        return id >= 0 ? count(id) : 0;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  compare
+    Purpose:        This function compares the term of an ID with another term,
+                    byte by byte, without copying the term of the ID
+    Input:          id  - The ID of the term
+                    key  - The UTF-8 bytes of the other term
+    Result:         A negative number, zero or a positive number as the term of
+                    the ID sorts before, the same as or after the other term
+    ******************************************************************************/
+    private int compare(int id, byte[] key) {
+        int start = (int) index.getLong(HEADER + 8 * id);
+        int length = (int) index.getLong(HEADER + 8 * (id + 1)) - start - 1;
+        for (int i = 0; i < length && i < key.length; i++) {
+            int order = Integer.compare(dictionary.get(start + i) & 0xFF, key[i] & 0xFF);
+            if (order != 0)
+                return order;
+        }
+        return Integer.compare(length, key.length);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  main
+    Purpose:        This function looks up terms within an export, for checking an
+                    export from the command line
+    Input:          args  - The folder of the export followed by the terms to
+                            look up
+    Result:         Displays the ID and the count of each term (or the number of
+                    terms exported when no term is given)
+    ******************************************************************************/
+    public static void main(String[] args) throws IOException {
+        term_export export = open(Paths.get(args[0]));
+        if (args.length == 1)
+            System.out.println(export.size() + " terms");
+        
+        for (int i = 1; i < args.length; i++) {
+            int id = export.id(args[i]);
+            System.out.println(args[i] + "  -  " + (id >= 0 ? "id " + id + ", count " + export.count(id) : "not exported"));
+        }
+    }
+}
\ No newline at end of file
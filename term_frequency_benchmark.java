@@ -0,0 +1,622 @@
+/******************************************************************************
+File Name:    term_frequency_benchmark.java
+Description:  This program benchmarks the Java term frequency programs. Each
+              stage (tokenizing, filtering the stop words, counting, merging
+              and selecting the top terms) is measured on its own within this
+              process, and each program is measured end to end by running it
+              as a separate process. The corpora are generated by repeating
+              pride-and-prejudice.txt up to the sizes requested (and, to
+              measure the Unicode mode, by accenting the smallest one), and
+              the results are written as JSON so that runs can be compared.
+******************************************************************************/
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.spi.ToolProvider;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class term_frequency_benchmark {
+    
+    
+    //Class variables
+    private static final String SOURCE = "pride-and-prejudice.txt";
+    private static final int WORKERS = 5;
+    private static int warmup = 2;
+    private static int iterations = 5;
+    private static final int SAMPLE_TERMS = 1 << 20;
+    private static stop_word_filter stopWords;
+    private static List<String> results = new ArrayList<String>();
+    
+    
+    /******************************************************************************
+    Interface:      stage
+    Description:    A piece of work to be measured; it returns a value derived
+                    from its work so that the work cannot be optimized away
+    ******************************************************************************/
+    interface stage {
+        long run() throws Exception;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  generateCorpus
+    Purpose:        This function creates a corpus of the size requested by
+                    repeating the source text (an existing corpus of the right
+                    size is reused)
+    Input:          directory  - The folder the corpus is written into
+                    size  - The size of the corpus in bytes
+    Result:         The path to the corpus
+    ******************************************************************************/
+    public static Path generateCorpus(Path directory, long size) throws IOException {
+        Path corpus = directory.resolve("corpus-" + size + ".txt");
+        if (Files.exists(corpus) && Files.size(corpus) == size)
+            return corpus;
+        
+        byte[] source = Files.readAllBytes(Paths.get(SOURCE));
+        try (OutputStream output = Files.newOutputStream(corpus)) {
+            long written = 0;
+            while (written < size) {
+                int length = (int) Math.min(source.length, size - written);
+                output.write(source, 0, length);
+                written += length;
+            }
+        }
+        return corpus;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  measure
+    Purpose:        This function runs a stage a few times to warm it up and then
+                    times each further run, recording the result as JSON
+    Input:          name  - The name of the stage
+                    corpus  - The label of the corpus
+                    bytes  - The size of the corpus in bytes
+                    work  - The stage to measure
+    Result:         The timings of the stage are recorded
+    ******************************************************************************/
+    public static void measure(String name, String corpus, long bytes, stage work) throws Exception {
+        long check = 0;
+        for (int i = 0; i < warmup; i++)
+            check += work.run();
+        
+        double[] millis = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            check += work.run();
+            millis[i] = (System.nanoTime() - start) / 1e6;
+        }
+        record(name, corpus, bytes, millis, check);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  record
+    Purpose:        This function turns the timings of a stage into a JSON object
+    Input:          name  - The name of the stage
+                    corpus  - The label of the corpus
+                    bytes  - The size of the corpus in bytes
+                    millis  - The time of each measured run in milliseconds
+                    check  - The value derived from the work of the stage
+    Result:         The JSON object is added to the results and summarized in
+                    the terminal
+    ******************************************************************************/
+    private static void record(String name, String corpus, long bytes, double[] millis, long check) {
+        double sum = 0, min = Double.MAX_VALUE;
+        StringBuilder runs = new StringBuilder();
+        for (double m : millis) {
+            sum += m;
+            min = Math.min(min, m);
+            runs.append(runs.length() == 0 ? "" : ", ").append(String.format(Locale.ROOT, "%.3f", m));
+        }
+        double mean = millis.length == 0 ? 0 : sum / millis.length;
+        
+        results.add(String.format(Locale.ROOT,
+                "    {\"name\": \"%s\", \"corpus\": \"%s\", \"bytes\": %d, \"iterations\": %d, "
+                + "\"mean_ms\": %.3f, \"min_ms\": %.3f, \"mb_per_s\": %.1f, \"runs_ms\": [%s], \"check\": %d}",
+                name, corpus, bytes, millis.length, mean, min, mean == 0 ? 0 : bytes / 1e3 / mean, runs, check));
+        System.err.printf(Locale.ROOT, "%-40s %-6s mean %10.1f ms  min %10.1f ms%n", name, corpus, mean, min);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  countCorpus
+    Purpose:        This function tokenizes the corpus, filters the stop words and
+                    spreads the terms over one counter per worker, the same way
+                    the workers of dataspaces_style share the terms
+    Input:          corpus  - The path to the corpus
+                    kind  - The kind of counter to use
+                    workers  - The number of counters to spread the terms over
+    Result:         The counters of the workers
+    ******************************************************************************/
+    private static term_counter[] countCorpus(Path corpus, String kind, int workers) throws IOException {
+        term_counter[] counters = new term_counter[workers];
+        for (int i = 0; i < workers; i++)
+            counters[i] = term_counter.create(kind);
+        
+        int[] next = {0};
+        new text_tokenizer().tokenize(corpus, (bytes, offset, length) -> {
+            if (!stopWords.contains(bytes, offset, length)) {
+                counters[next[0]].add(bytes, offset, length, 1);
+                next[0] = (next[0] + 1) % workers;
+            }
+        });
+        return counters;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  countGrams
+    Purpose:        This function tokenizes the corpus, filters the stop words and
+                    counts the terms along with their n-grams, the same way the
+                    workers of dataspaces_style count a range
+    Input:          corpus  - The path to the corpus
+                    sizes  - The sizes of n-gram to count (none for the terms
+                             alone)
+    Result:         The number of distinct terms and n-grams
+    ******************************************************************************/
+    private static long countGrams(Path corpus, int... sizes) throws IOException {
+        term_counter counter = term_counter.create("table");
+        ngram_counter[] grams = new ngram_counter[sizes.length];
+        for (int i = 0; i < sizes.length; i++)
+            grams[i] = new ngram_counter(sizes[i]);
+        
+        new text_tokenizer().tokenize(corpus, (bytes, offset, length) -> {
+            if (!stopWords.contains(bytes, offset, length)) {
+                counter.add(bytes, offset, length, 1);
+                for (ngram_counter gram : grams)
+                    gram.next(bytes, offset, length);
+            }
+        });
+        
+        long distinct = counter.size();
+        for (ngram_counter gram : grams)
+            distinct += gram.size();
+        return distinct;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  benchmarkStopWords
+    Purpose:        This function compares the stop word filter with the HashSet
+                    it replaced, by checking the same sample of terms taken from
+                    the start of the corpus against both
+    Input:          corpus  - The path to the corpus
+                    label  - The label of the corpus
+                    bytes  - The size of the corpus in bytes
+    Result:         The timings are recorded
+    ******************************************************************************/
+    private static void benchmarkStopWords(Path corpus, String label, long bytes) throws Exception {
+        byte[] arena = new byte[SAMPLE_TERMS * 8];
+        int[] offsets = new int[SAMPLE_TERMS];
+        int[] lengths = new int[SAMPLE_TERMS];
+        String[] strings = new String[SAMPLE_TERMS];
+        int[] sample = {0, 0};
+        
+        
+        //Only the start of the corpus is read, as the whole of a large corpus would not fit within an array
+        byte[] contents;
+        try (InputStream input = Files.newInputStream(corpus)) {
+            contents = input.readNBytes(arena.length);
+        }
+        text_tokenizer tokenizer = new text_tokenizer();
+        tokenizer.tokenize(contents, 0, contents.length, word -> {
+            int terms = sample[0];
+            if (terms == SAMPLE_TERMS || sample[1] + word.length() > arena.length)
+                return;
+            offsets[terms] = sample[1];
+            lengths[terms] = word.length();
+            for (int i = 0; i < word.length(); i++)
+                arena[sample[1]++] = (byte) word.charAt(i);
+            strings[terms] = word;
+            sample[0]++;
+        });
+        int terms = sample[0];
+        
+        Set<String> hashSet = new HashSet<String>();
+        String[] words = new String(Files.readAllBytes(Paths.get(stop_word_filter.DEFAULT_PATH))).split(",");
+        for (int i = 0; i < words.length; i++)
+            hashSet.add(words[i]);
+        
+        String name = "stop-words/" + terms + "-terms/";
+        measure(name + "hashset", label, bytes, () -> {
+            long hits = 0;
+            for (int i = 0; i < terms; i++)
+                hits += hashSet.contains(strings[i]) ? 1 : 0;
+            return hits;
+        });
+        measure(name + "trie-string", label, bytes, () -> {
+            long hits = 0;
+            for (int i = 0; i < terms; i++)
+                hits += stopWords.contains(strings[i]) ? 1 : 0;
+            return hits;
+        });
+        measure(name + "trie-bytes", label, bytes, () -> {
+            long hits = 0;
+            for (int i = 0; i < terms; i++)
+                hits += stopWords.contains(arena, offsets[i], lengths[i]) ? 1 : 0;
+            return hits;
+        });
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  runProgram
+    Purpose:        These functions run one of the term frequency programs as a
+                    separate process and wait for it to finish
+    Input:          classPath  - The class path of the program (the class path
+                                 of the benchmark unless given)
+                    options  - The options of the JVM
+                    arguments  - The name of the program and its arguments
+    Result:         The exit code of the program
+    ******************************************************************************/
+    private static long runProgram(List<String> arguments) throws IOException, InterruptedException {
+        return runProgram(System.getProperty("java.class.path"), Collections.<String>emptyList(), arguments);
+    }
+    
+    private static long runProgram(String classPath, List<String> options, List<String> arguments) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<String>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(options);
+        command.add("-cp");
+        command.add(classPath);
+        command.addAll(arguments);
+        
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        int exit = process.waitFor();
+        if (exit != 0)
+            throw new IOException(String.join(" ", arguments) + " exited with " + exit);
+        return exit;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  accentCorpus
+    Purpose:        This function creates an accented copy of a corpus, in which
+                    every e following an r becomes an e with an acute accent (as
+                    in "pride" and "very"), written either precomposed (U+00E9)
+                    or as an e followed by a combining accent (U+0301)
+    Input:          corpus  - The path to the corpus
+                    decomposed  - Whether to write the accents as combining marks
+    Result:         The path to the accented corpus
+    ******************************************************************************/
+    private static Path accentCorpus(Path corpus, boolean decomposed) throws IOException {
+        String name = corpus.getFileName().toString().replace(".txt", decomposed ? "-nfd.txt" : "-accented.txt");
+        Path accented = corpus.resolveSibling(name);
+        if (Files.exists(accented) && Files.getLastModifiedTime(accented).compareTo(Files.getLastModifiedTime(corpus)) >= 0)
+            return accented;
+        
+        byte[] accent = decomposed ? new byte[] {'e', (byte) 0xCC, (byte) 0x81} : new byte[] {(byte) 0xC3, (byte) 0xA9};
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(corpus));
+                OutputStream output = new BufferedOutputStream(Files.newOutputStream(accented))) {
+            int previous = -1;
+            int b;
+            while ((b = input.read()) != -1) {
+                if (b == 'e' && previous == 'r')
+                    output.write(accent);
+                else
+                    output.write(b);
+                previous = b;
+            }
+        }
+        return accented;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  benchmarkUnicode
+    Purpose:        This function measures the tokenizer in the ASCII mode, the
+                    Unicode mode and the Unicode mode with NFC, on the corpus
+                    and, if requested, on its accented copies
+    Input:          corpus  - The path to the corpus
+                    label  - The label of the corpus
+                    accented  - Whether to also write and measure the accented
+                                copies, which take twice the size of the corpus
+                                on disk
+    Result:         The timings are recorded
+    ******************************************************************************/
+    private static void benchmarkUnicode(Path corpus, String label, boolean accented) throws Exception {
+        Map<String, Path> corpora = new LinkedHashMap<String, Path>();
+        corpora.put("english", corpus);
+        if (accented) {
+            corpora.put("accented", accentCorpus(corpus, false));
+            corpora.put("decomposed", accentCorpus(corpus, true));
+        }
+        
+        for (Map.Entry<String, Path> entry : corpora.entrySet()) {
+            Path text = entry.getValue();
+            long size = Files.size(text);
+            measure("tokenize/ascii/" + entry.getKey(), label, size, () -> countTokens(text, false, false));
+            measure("tokenize/unicode/" + entry.getKey(), label, size, () -> countTokens(text, true, false));
+            measure("tokenize/unicode+nfc/" + entry.getKey(), label, size, () -> countTokens(text, true, true));
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  countTokens
+    Purpose:        This function counts the terms of a corpus
+    Input:          corpus  - The path to the corpus
+                    unicode  - Whether to use the Unicode mode
+                    nfc  - Whether to compose the accents of the terms
+    Result:         The number of terms
+    ******************************************************************************/
+    private static long countTokens(Path corpus, boolean unicode, boolean nfc) throws IOException {
+        long[] tokens = {0};
+        new text_tokenizer(unicode, nfc).tokenize(corpus, (b, offset, length) -> tokens[0]++);
+        return tokens[0];
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  benchmarkApproximate
+    Purpose:        This function measures the space_saving_counter at a few
+                    capacities and checks its top terms against the exact counts
+    Input:          corpus  - The path to the corpus
+                    label  - The label of the corpus
+                    bytes  - The size of the corpus in bytes
+                    exact  - The exact counts of the corpus, one counter per shard
+    Result:         The timings and the accuracy of each capacity are recorded
+    ******************************************************************************/
+    private static void benchmarkApproximate(Path corpus, String label, long bytes, term_counter[] exact) throws Exception {
+        int shards = exact.length;
+        top_k exactTop = new top_k(25);
+        for (term_counter shard : exact)
+            exactTop.addAll(top_k.of(shard, 25));
+        Set<String> expected = new HashSet<String>();
+        for (Map.Entry<String, Long> term : exactTop.result())
+            expected.add(term.getKey());
+        
+        for (int capacity : new int[] {1000, 10000}) {
+            space_saving_counter.defaultCapacity = capacity;
+            String name = "space-saving-" + capacity;
+            measure("tokenize+filter+count/" + name, label, bytes, () -> countCorpus(corpus, "space-saving", WORKERS)[0].size());
+            
+            term_counter[] sketches = dataspaces_style.mergeCounters(countCorpus(corpus, "space-saving", WORKERS), "space-saving", shards);
+            top_k top = new top_k(25);
+            for (term_counter shard : sketches)
+                top.addAll(top_k.of(shard, 25));
+            
+            
+            //Every count printed is compared with the exact count of its term
+            int found = 0;
+            long maxError = 0;
+            for (Map.Entry<String, Long> term : top.result()) {
+                long count = 0;
+                for (term_counter shard : exact)
+                    count += shard.get(term.getKey());
+                maxError = Math.max(maxError, term.getValue() - count);
+                if (expected.contains(term.getKey()))
+                    found++;
+            }
+            String bounds = space_saving_counter.describe(Arrays.asList(sketches), top);
+            
+            results.add(String.format(Locale.ROOT,
+                    "    {\"name\": \"accuracy/%s\", \"corpus\": \"%s\", \"top_found\": %d, \"top\": %d, "
+                    + "\"max_count_error\": %d, \"bounds\": \"%s\"}",
+                    name, label, found, expected.size(), maxError, bounds));
+            System.err.printf(Locale.ROOT, "%-40s %-6s %d of the top %d, counts at most %d too high%n",
+                    "accuracy/" + name, label, found, expected.size(), maxError);
+        }
+        space_saving_counter.defaultCapacity = space_saving_counter.DEFAULT_CAPACITY;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  benchmarkCorpus
+    Purpose:        This function measures every stage and every program on one
+                    corpus
+    Input:          corpus  - The path to the corpus
+                    label  - The label of the corpus
+                    endToEnd  - Whether to run the programs end to end
+                    accented  - Whether to measure the tokenizer on accented
+                                copies of the corpus
+    Result:         The timings are recorded
+    ******************************************************************************/
+    private static void benchmarkCorpus(Path corpus, String label, boolean endToEnd, boolean accented) throws Exception {
+        long bytes = Files.size(corpus);
+        int shards = Runtime.getRuntime().availableProcessors();
+        
+        measure("tokenize", label, bytes, () -> {
+            long[] tokens = {0};
+            new text_tokenizer().tokenize(corpus, (b, offset, length) -> tokens[0]++);
+            return tokens[0];
+        });
+        measure("tokenize+filter", label, bytes, () -> {
+            long[] tokens = {0};
+            new text_tokenizer().tokenize(corpus, (b, offset, length) -> {
+                if (!stopWords.contains(b, offset, length))
+                    tokens[0]++;
+            });
+            return tokens[0];
+        });
+        measure("tokenize+filter+count/table", label, bytes, () -> countCorpus(corpus, "table", WORKERS)[0].size());
+        measure("tokenize+filter+count/hashmap", label, bytes, () -> countCorpus(corpus, "hashmap", WORKERS)[0].size());
+        measure("tokenize+filter+count/unigrams", label, bytes, () -> countGrams(corpus));
+        measure("tokenize+filter+count/3-grams", label, bytes, () -> countGrams(corpus, 3));
+        measure("tokenize+filter+count/2,3-grams", label, bytes, () -> countGrams(corpus, 2, 3));
+        
+        benchmarkStopWords(corpus, label, bytes);
+        benchmarkUnicode(corpus, label, accented);
+        
+        term_counter[] counters = countCorpus(corpus, "table", WORKERS);
+        measure("merge/" + shards + "-shards", label, bytes, () -> dataspaces_style.mergeCounters(counters, "table", shards).length);
+        
+        term_counter[] merged = dataspaces_style.mergeCounters(counters, "table", shards);
+        measure("top25", label, bytes, () -> {
+            top_k top = new top_k(25);
+            for (term_counter shard : merged)
+                top.addAll(top_k.of(shard, 25));
+            return top.result().size();
+        });
+        benchmarkApproximate(corpus, label, bytes, merged);
+        
+        if (!endToEnd)
+            return;
+        
+        String path = corpus.toString();
+        String[][] programs = {
+            {"actors_style", path},
+            {"actors_style", "--stream", path},
+            {"dataspaces_style", path},
+            {"dataspaces_style", "--stream", path},
+            {"dataspaces_style", "--mmap", path},
+            {"dataspaces_style", "--unicode", path},
+            {"dataspaces_style", "--counter=space-saving", path},
+            {"dataspaces_style", "--mmap", "--ngrams=3", path},
+        };
+        for (String[] program : programs) {
+            String name = "end-to-end/" + String.join(" ", program).replace(" " + path, "").replace(' ', '_');
+            measure(name, label, bytes, () -> runProgram(Arrays.asList(program)));
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  benchmarkStartup
+    Purpose:        This function measures how long the programs take, end to
+                    end, on an empty input and on a 1 KB input, where the time
+                    goes to starting the JVM rather than to counting. The
+                    programs are also run from a jar with a class data sharing
+                    archive of their classes, created by a first run with
+                    -XX:ArchiveClassesAtExit (the JVM only archives classes
+                    loaded from jars)
+    Input:          directory  - The folder the inputs, the jar and the archive
+                                 are written into
+    Result:         The timings are recorded
+    ******************************************************************************/
+    private static void benchmarkStartup(Path directory) throws Exception {
+        Path empty = directory.resolve("startup-empty.txt");
+        Files.write(empty, new byte[0]);
+        Path small = directory.resolve("startup-1KB.txt");
+        Files.write(small, Arrays.copyOf(Files.readAllBytes(Paths.get(SOURCE)), 1024));
+        
+        String classPath = System.getProperty("java.class.path");
+        if (!classPath.endsWith(".jar")) {
+            Path jar = directory.resolve("term-frequency.jar");
+            List<String> command = new ArrayList<String>(Arrays.asList("--create", "--file", jar.toString()));
+            try (Stream<Path> classes = Files.list(Paths.get(classPath))) {
+                for (Path file : classes.filter(file -> file.toString().endsWith(".class")).sorted().collect(Collectors.toList()))
+                    command.addAll(Arrays.asList("-C", classPath, file.getFileName().toString()));
+            }
+            ToolProvider tool = ToolProvider.findFirst("jar").orElseThrow(() -> new IOException("the jar tool is not available"));
+            if (tool.run(System.out, System.err, command.toArray(new String[0])) != 0)
+                throw new IOException("could not create " + jar);
+            classPath = jar.toString();
+        }
+        Path archive = directory.resolve("term-frequency.jsa");
+        Files.deleteIfExists(archive);
+        runProgram(classPath, Arrays.asList("-XX:ArchiveClassesAtExit=" + archive), Arrays.asList("dataspaces_style", small.toString()));
+        List<String> shared = Arrays.asList("-XX:SharedArchiveFile=" + archive, "-XX:TieredStopAtLevel=1");
+        
+        String[] programs = {"actors_style", "dataspaces_style"};
+        Path[] inputs = {empty, small};
+        String[] labels = {"empty", "1KB"};
+        for (int i = 0; i < inputs.length; i++) {
+            String input = inputs[i].toString();
+            long bytes = Files.size(inputs[i]);
+            for (String program : programs)
+                measure("startup/" + program, labels[i], bytes, () -> runProgram(Arrays.asList(program, input)));
+            for (String program : programs) {
+                String jar = classPath;
+                measure("startup/" + program + "_cds", labels[i], bytes, () -> runProgram(jar, shared, Arrays.asList(program, input)));
+            }
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  parseSize
+    Purpose:        This function reads a size such as 10MB or 1GB
+    Input:          size  - The size written with an optional KB, MB or GB suffix
+    Result:         The size in bytes
+    ******************************************************************************/
+    public static long parseSize(String size) {
+        String upper = size.trim().toUpperCase(Locale.ROOT);
+        long unit = 1;
+        if (upper.endsWith("KB"))
+            unit = 1L << 10;
+        else if (upper.endsWith("MB"))
+            unit = 1L << 20;
+        else if (upper.endsWith("GB"))
+            unit = 1L << 30;
+        String digits = unit == 1 ? upper : upper.substring(0, upper.length() - 2);
+        return Long.parseLong(digits) * unit;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  main
+    Purpose:        This function generates the corpora, runs the benchmarks and
+                    writes the results as JSON
+    Input:          args  - An array of arguments: --sizes=10MB,1GB,10GB for the
+                            corpora to generate, --warmup=N and --iterations=N
+                            for the number of runs, --corpus-dir=PATH for where
+                            the corpora are kept, --output=PATH for the JSON
+                            file (printed to the terminal otherwise),
+                            --no-end-to-end to skip running the programs
+                            (and measuring how long they take to start) and
+                            --accented-all to measure the tokenizer on
+                            accented copies of every corpus instead of only
+                            the smallest one
+    Result:         The results of the benchmarks are written as JSON
+    ******************************************************************************/
+    public static void main(String[] args) throws Exception {
+        String sizes = "10MB";
+        Path corpusDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+        String output = null;
+        boolean endToEnd = true;
+        boolean accentedAll = false;
+        for (String arg : args) {
+            if (arg.startsWith("--sizes="))
+                sizes = arg.substring("--sizes=".length());
+            else if (arg.startsWith("--warmup="))
+                warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+            else if (arg.startsWith("--iterations="))
+                iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+            else if (arg.startsWith("--corpus-dir="))
+                corpusDirectory = Paths.get(arg.substring("--corpus-dir=".length()));
+            else if (arg.startsWith("--output="))
+                output = arg.substring("--output=".length());
+            else if (arg.equals("--no-end-to-end"))
+                endToEnd = false;
+            else if (arg.equals("--accented-all"))
+                accentedAll = true;
+        }
+        
+        stopWords = stop_word_filter.load(stop_word_filter.DEFAULT_PATH);
+        
+        Files.createDirectories(corpusDirectory);
+        
+        
+        //The accented copies take twice the size of their corpus on disk, so only the smallest corpus gets them unless asked
+        long smallest = Arrays.stream(sizes.split(",")).mapToLong(term_frequency_benchmark::parseSize).min().getAsLong();
+        for (String size : sizes.split(",")) {
+            Path corpus = generateCorpus(corpusDirectory, parseSize(size));
+            benchmarkCorpus(corpus, size.trim(), endToEnd, accentedAll || parseSize(size) == smallest);
+        }
+        if (endToEnd)
+            benchmarkStartup(corpusDirectory);
+        
+        String json = "{\n  \"java\": \"" + System.getProperty("java.version") + "\",\n"
+                + "  \"cores\": " + Runtime.getRuntime().availableProcessors() + ",\n"
+                + "  \"benchmarks\": [\n" + String.join(",\n", results) + "\n  ]\n}\n";
+        if (output == null)
+            System.out.print(json);
+        else
+            Files.write(new File(output).toPath(), json.getBytes());
+    }
+}
\ No newline at end of file
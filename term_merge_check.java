@@ -0,0 +1,147 @@
+/******************************************************************************
+File Name:    term_merge_check.java
+Description:  This program checks the sharded merge of the Java term frequency
+              programs. Random worker counters are merged many times into 1
+              to N shards by the Frequency threads of dataspaces_style
+              (through dataspaces_style.mergeCounters), and each merge is
+              compared with a single-threaded reference: every term must be
+              counted once, within the shard owning it, with the count of
+              the reference. The program exits with a non-zero code on the
+              first mismatch, so it can be run as a check after a change.
+              The workers of a merge mix the kinds of counter, as a snapshot
+              or the words routed by actors_style do, so a term hashed two
+              ways would show up within two shards.
+******************************************************************************/
+
+
+import java.util.*;
+
+public class term_merge_check {
+    
+    
+    //Class variables
+    private static final String[] KINDS = {"table", "hashmap"};
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+    
+    
+    /******************************************************************************
+    Function Name:  randomCounters
+    Purpose:        This function spreads random terms over the counters of a few
+                    workers, each of a random kind, some terms falling to
+                    several workers, and counts the same terms within a single
+                    reference map
+    Input:          random  - The source of the terms
+                    workers  - The number of workers
+                    reference  - The map receiving the reference counts
+    Result:         The counters of the workers
+    ******************************************************************************/
+    private static term_counter[] randomCounters(Random random, int workers, Map<String, Long> reference) {
+        term_counter[] counters = new term_counter[workers];
+        for (int i = 0; i < workers; i++)
+            counters[i] = term_counter.create(KINDS[random.nextInt(KINDS.length)]);
+        
+        int vocabulary = 1 + random.nextInt(20000);
+        int terms = random.nextInt(4 * vocabulary);
+        for (int i = 0; i < terms; i++) {
+            String term = randomTerm(random, vocabulary);
+            long delta = 1 + random.nextInt(3);
+            counters[random.nextInt(workers)].add(term, delta);
+            reference.merge(term, delta, Long::sum);
+        }
+        return counters;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  randomTerm
+    Purpose:        This function picks one of a fixed number of terms, written
+                    from the letters a to z (and now and then an accented
+                    letter, as --unicode counts them)
+    Input:          random  - The source of the terms
+                    vocabulary  - The number of distinct terms to pick from
+    Result:         The term
+    ******************************************************************************/
+    private static String randomTerm(Random random, int vocabulary) {
+        int number = random.nextInt(vocabulary);
+        StringBuilder term = new StringBuilder();
+        do {
+            term.append(LETTERS.charAt(number % LETTERS.length()));
+            number /= LETTERS.length();
+        } while (number > 0);
+        if (random.nextInt(10) == 0)
+            term.append('\u00e9');
+        return term.toString();
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  compare
+    Purpose:        This function compares the shards of a merge with the
+                    reference counts
+    Input:          merged  - The merged counter of each shard
+                    reference  - The reference counts
+    Result:         A description of the first mismatch, or null if the merge
+                    matches the reference
+    ******************************************************************************/
+    private static String compare(term_counter[] merged, Map<String, Long> reference) {
+        Map<String, Long> seen = new HashMap<String, Long>();
+        String[] mismatch = {null};
+        for (int shard = 0; shard < merged.length; shard++) {
+            int owner = shard;
+            merged[shard].forEach((term, count) -> {
+                if (mismatch[0] == null && seen.put(term, count) != null)
+                    mismatch[0] = "\"" + term + "\" is counted within two shards";
+                else if (mismatch[0] == null && count != reference.getOrDefault(term, 0L))
+                    mismatch[0] = "\"" + term + "\" is counted " + count + " times within shard " + owner + " instead of " + reference.getOrDefault(term, 0L);
+            });
+        }
+        
+        if (mismatch[0] == null && seen.size() != reference.size())
+            mismatch[0] = seen.size() + " terms were merged instead of " + reference.size();
+        return mismatch[0];
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  main
+    Purpose:        This function runs the merges and compares each one with its
+                    reference
+    Input:          args  - An array of arguments: --rounds=N for the number of
+                            merges of each kind of counter (default 200),
+                            --max-shards=N for the largest number of shards
+                            (default 16) and --seed=N for the random terms
+    Result:         Displays the number of merges checked, or the first mismatch
+                    along with a non-zero exit code
+    ******************************************************************************/
+    public static void main(String[] args) {
+        int rounds = 200;
+        int maxShards = 16;
+        long seed = System.nanoTime();
+        for (String arg : args) {
+            if (arg.startsWith("--rounds="))
+                rounds = Integer.parseInt(arg.substring("--rounds=".length()));
+            else if (arg.startsWith("--max-shards="))
+                maxShards = Math.max(1, Integer.parseInt(arg.substring("--max-shards=".length())));
+            else if (arg.startsWith("--seed="))
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+        }
+        
+        Random random = new Random(seed);
+        int checked = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (String kind : KINDS) {
+                Map<String, Long> reference = new HashMap<String, Long>();
+                term_counter[] counters = randomCounters(random, 1 + random.nextInt(8), reference);
+                int shards = 1 + random.nextInt(maxShards);
+                String mismatch = compare(dataspaces_style.mergeCounters(counters, kind, shards), reference);
+                if (mismatch != null) {
+                    System.err.println("Merge " + (checked + 1) + " (" + kind + ", " + shards + " shards, seed " + seed + "): " + mismatch);
+                    System.exit(1);
+                }
+                checked++;
+            }
+        }
+        
+        System.out.println(checked + " merges match the single-threaded reference (seed " + seed + ")");
+    }
+}
\ No newline at end of file
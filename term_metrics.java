@@ -0,0 +1,420 @@
+/******************************************************************************
+File Name:    term_metrics.java
+Description:  This file holds the instrumentation shared by the Java term
+              frequency programs. Each stage of a program (reading,
+              tokenizing, filtering, counting, merging and selecting the top
+              terms) records how long it took, how many items went in and out
+              and how many bytes its thread allocated meanwhile; counters and
+              gauges record the tokens, the stop words and the depth of the
+              queues. Stages are recorded once per batch, range or file,
+              never per term. The calls and items of a stage are added up
+              within plain totals owned by each thread (or Actor), and the
+              time and the allocations are only measured for one call in 64
+              (and scaled up), so a stage recorded for every batch costs a
+              few nanoseconds per call, even with batches of a single word
+              (actors_style --batch=1). Nothing is measured unless the
+              metrics are enabled, in which case a summary (or a JSON file) is
+              written at exit and, when the JVM runs a flight recording, every
+              call of a stage is measured and committed as a JFR event.
+******************************************************************************/
+
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+public class term_metrics {
+    
+    
+    //Class variables
+    public static boolean enabled = false;
+    private static String output = null;
+    private static final Map<String, stage> stages = Collections.synchronizedMap(new LinkedHashMap<String, stage>());
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+    private static final Map<String, AtomicLong> gauges = new ConcurrentHashMap<String, AtomicLong>();
+    private static final int SAMPLE_MASK = 63;
+    private static final long UNSAMPLED = Long.MIN_VALUE;
+    private static final int CALLS = 0, SAMPLED = 1, NANOS = 2, IN = 3, OUT = 4, ALLOCATED = 5, ALLOCATED_AT_BEGIN = 6;
+    private static ThreadMXBean threads;
+    private static boolean recording = false;
+    
+    
+    /******************************************************************************
+    Class:          stage
+    Description:    The totals of one stage of a program, kept by recorders (one
+                    per thread running the stage, or one per object such as an
+                    Actor that runs the stage on one thread at a time) and only
+                    added up when the metrics are written out
+    Data Fields:    name  - The name of the stage
+                    local  - The recorder of the current thread
+                    recorders  - Every recorder of the stage
+    Functions:      begin, end  - Record a call of the stage through the
+                                  recorder of the current thread
+                    recorder  - Creates a recorder for a single owner, which
+                                spares looking up the recorder of the thread
+                                on every call (it is only kept when the
+                                metrics are enabled)
+                    sum  - Adds up one of the totals over every recorder
+                    estimate  - Scales a total of the calls measured up to
+                                every call
+    ******************************************************************************/
+    public static final class stage {
+        
+        
+        //Instance variables
+        final String name;
+        private final ThreadLocal<recorder> local = ThreadLocal.withInitial(this::recorder);
+        private final List<recorder> recorders = new ArrayList<recorder>();
+        private final long[] retired = new long[ALLOCATED_AT_BEGIN + 1];
+        
+        
+        stage(String name) {
+            this.name = name;
+        }
+        
+        public long begin() {
+            return enabled ? local.get().begin() : 0;
+        }
+        
+        public void end(long begin, long itemsIn, long itemsOut) {
+            if (enabled)
+                local.get().end(begin, itemsIn, itemsOut);
+        }
+        
+        public recorder recorder() {
+            recorder created = new recorder(this);
+            if (enabled) {
+                synchronized (recorders) {
+                    recorders.add(created);
+                }
+            }
+            return created;
+        }
+        
+        long sum(int total) {
+            synchronized (recorders) {
+                long sum = retired[total];
+                for (recorder owned : recorders)
+                    sum += owned.totals[total];
+                return sum;
+            }
+        }
+        
+        
+        //The time and the bytes allocated are scaled from the calls measured up to every call
+        long estimate(int total) {
+            long sampled = sum(SAMPLED);
+            return sampled == 0 ? 0 : Math.round((double) sum(total) * sum(CALLS) / sampled);
+        }
+    }
+    
+    
+    /******************************************************************************
+    Class:          recorder
+    Description:    The totals of a stage kept by a single thread or owner: the
+                    calls, the calls measured, the time and the bytes allocated
+                    within the calls measured, and the items in and out. Only
+                    one call in 64 is measured, unless a flight recording is
+                    running
+    Data Fields:    stage  - The stage recorded
+                    totals  - The totals of the recorder
+    Functions:      begin  - Marks the start of a call, if the call is measured
+                    end  - Adds the call and its items to the totals, along with
+                           the time and the bytes allocated since the start if
+                           the call is measured
+                    close  - Folds the totals into those of the stage once the
+                             owner is done, so that the owners created for
+                             each count of a long-running program are not
+                             kept
+    ******************************************************************************/
+    public static final class recorder {
+        
+        
+        //Instance variables
+        private final stage stage;
+        final long[] totals = new long[ALLOCATED_AT_BEGIN + 1];
+        
+        
+        recorder(stage stage) {
+            this.stage = stage;
+        }
+        
+        public long begin() {
+            if (!enabled || (!recording && (totals[CALLS] & SAMPLE_MASK) != 0))
+                return UNSAMPLED;
+            totals[ALLOCATED_AT_BEGIN] = allocatedBytes();
+            return System.nanoTime();
+        }
+        
+        public void end(long begin, long itemsIn, long itemsOut) {
+            if (!enabled)
+                return;
+            totals[CALLS]++;
+            totals[IN] += itemsIn;
+            totals[OUT] += itemsOut;
+            if (begin == UNSAMPLED)
+                return;
+            
+            long elapsed = System.nanoTime() - begin;
+            long bytes = Math.max(0, allocatedBytes() - totals[ALLOCATED_AT_BEGIN]);
+            totals[SAMPLED]++;
+            totals[NANOS] += elapsed;
+            totals[ALLOCATED] += bytes;
+            
+            if (!recording)
+                return;
+            stageEvent event = new stageEvent();
+            if (event.isEnabled()) {
+                event.stage = stage.name;
+                event.in = itemsIn;
+                event.out = itemsOut;
+                event.allocated = bytes;
+                event.elapsed = elapsed;
+                event.commit();
+            }
+        }
+        
+        public void close() {
+            synchronized (stage.recorders) {
+                if (stage.recorders.remove(this)) {
+                    for (int i = 0; i < totals.length; i++)
+                        stage.retired[i] += totals[i];
+                }
+            }
+        }
+    }
+    
+    
+    /******************************************************************************
+    Class:          stageEvent
+    Description:    The JFR event committed each time a stage is recorded, so the
+                    stages can be lined up with the rest of a flight recording
+    ******************************************************************************/
+    @Name("termfrequency.Stage")
+    @Label("Term Frequency Stage")
+    @Category("Term Frequency")
+    static class stageEvent extends Event {
+        @Label("Stage")
+        String stage;
+        
+        @Label("Items In")
+        long in;
+        
+        @Label("Items Out")
+        long out;
+        
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+        
+        @Label("Elapsed")
+        @Timespan
+        long elapsed;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  enable
+    Purpose:        This function turns the metrics on and writes them out once the
+                    program exits
+    Input:          path  - The JSON file to write the metrics to (null to
+                            summarize them in the terminal instead)
+    Result:         The stages are measured from now on and written out at exit
+    ******************************************************************************/
+    public static void enable(String path) {
+        output = path;
+        threads = ManagementFactory.getThreadMXBean();
+        
+        
+        //Setting up the JFR events takes a few hundred milliseconds, so they are only used when a recording was started
+        recording = FlightRecorder.isInitialized();
+        enabled = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(term_metrics::report, "term-metrics"));
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  stage
+    Purpose:        This function finds the totals of a stage, creating them the
+                    first time the stage is named
+    Input:          name  - The name of the stage
+    Result:         The totals of the stage
+    ******************************************************************************/
+    public static stage stage(String name) {
+        synchronized (stages) {
+            stage totals = stages.get(name);
+            if (totals == null) {
+                totals = new stage(name);
+                stages.put(name, totals);
+            }
+            return totals;
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  counter
+    Purpose:        This function finds a counter (such as the number of stop
+                    words found), creating it the first time it is named, so
+                    that it can be kept and added to without looking it up
+                    each time
+    Input:          name  - The name of the counter
+    Result:         The counter, to add to only when the metrics are enabled
+    ******************************************************************************/
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  add
+    Purpose:        This function adds to a counter named each time
+    Input:          name  - The name of the counter
+                    delta  - The amount to add
+    Result:         The counter is increased when the metrics are enabled
+    ******************************************************************************/
+    public static void add(String name, long delta) {
+        if (enabled)
+            counter(name).add(delta);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  gaugeMax
+    Purpose:        This function records a level (such as the depth of a queue),
+                    keeping the largest level seen
+    Input:          name  - The name of the gauge
+                    value  - The level seen
+    Result:         The gauge holds the largest level when the metrics are enabled
+    ******************************************************************************/
+    public static void gaugeMax(String name, long value) {
+        if (enabled)
+            gauges.computeIfAbsent(name, key -> new AtomicLong()).accumulateAndGet(value, Math::max);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  allocatedBytes
+    Purpose:        This function reads how many bytes the current thread has
+                    allocated so far
+    Result:         The bytes allocated by the thread (0 where the JVM cannot
+                    tell)
+    ******************************************************************************/
+    private static long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return 0;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  column
+    Purpose:        This function pads a value to the width of its column (the
+                    Formatter behind printf takes about as long to load as a
+                    small run takes to count, so the summary is laid out by
+                    hand)
+    Input:          value  - The value to lay out
+                    width  - The width of the column, negative to align the
+                             value to the left
+    Result:         The padded value
+    ******************************************************************************/
+    private static String column(String value, int width) {
+        StringBuilder padding = new StringBuilder();
+        for (int i = value.length(); i < Math.abs(width); i++)
+            padding.append(' ');
+        return width < 0 ? value + padding : padding + value;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  decimal
+    Purpose:        This function writes a positive number with a fixed number of
+                    decimals
+    Input:          value  - The number to write
+                    decimals  - The number of decimals
+    Result:         The number, rounded to the decimals requested
+    ******************************************************************************/
+    private static String decimal(double value, int decimals) {
+        long scale = 1;
+        for (int i = 0; i < decimals; i++)
+            scale *= 10;
+        long scaled = Math.round(value * scale);
+        String fraction = String.valueOf(scale + scaled % scale).substring(1);
+        return scaled / scale + (decimals > 0 ? "." + fraction : "");
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  report
+    Purpose:        This function writes out the totals of every stage, the
+                    counters, the gauges and the stop word hit rate
+    Result:         The metrics are written to the JSON file requested, or
+                    summarized in the terminal
+    ******************************************************************************/
+    public static void report() {
+        List<stage> recorded = new ArrayList<stage>();
+        synchronized (stages) {
+            for (stage s : stages.values()) {
+                if (s.sum(CALLS) > 0)
+                    recorded.add(s);
+            }
+        }
+        
+        long tokens = counter("tokens").sum();
+        long stopWords = counter("stop_words").sum();
+        double hitRate = tokens == 0 ? 0 : (double) stopWords / tokens;
+        
+        if (output == null) {
+            StringBuilder summary = new StringBuilder();
+            summary.append(column("stage", -10)).append(column("calls", 9)).append(column("ms", 11)).append(column("in", 15))
+                    .append(column("out", 15)).append(column("allocated", 15)).append('\n');
+            for (stage s : recorded)
+                summary.append(column(s.name, -10)).append(column(String.valueOf(s.sum(CALLS)), 9))
+                        .append(column(decimal(s.estimate(NANOS) / 1e6, 1), 11)).append(column(String.valueOf(s.sum(IN)), 15))
+                        .append(column(String.valueOf(s.sum(OUT)), 15)).append(column(decimal(s.estimate(ALLOCATED) / 1e6, 1), 12)).append(" MB\n");
+            for (Map.Entry<String, LongAdder> counter : new TreeMap<String, LongAdder>(counters).entrySet())
+                summary.append(column(counter.getKey(), -32)).append(column(String.valueOf(counter.getValue().sum()), 15)).append('\n');
+            for (Map.Entry<String, AtomicLong> gauge : new TreeMap<String, AtomicLong>(gauges).entrySet())
+                summary.append(column(gauge.getKey(), -32)).append(column(String.valueOf(gauge.getValue().get()), 15)).append('\n');
+            if (tokens > 0)
+                summary.append(column("stop_word_hit_rate", -32)).append(column(decimal(hitRate, 3), 15)).append('\n');
+            System.err.print(summary);
+            return;
+        }
+        
+        List<String> lines = new ArrayList<String>();
+        for (stage s : recorded)
+            lines.add("    \"" + s.name + "\": {\"calls\": " + s.sum(CALLS) + ", \"calls_measured\": " + s.sum(SAMPLED)
+                    + ", \"ms\": " + decimal(s.estimate(NANOS) / 1e6, 3) + ", \"in\": " + s.sum(IN) + ", \"out\": " + s.sum(OUT)
+                    + ", \"allocated_bytes\": " + s.estimate(ALLOCATED) + "}");
+        List<String> levels = new ArrayList<String>();
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<String, LongAdder>(counters).entrySet())
+            levels.add("    \"" + counter.getKey() + "\": " + counter.getValue().sum());
+        for (Map.Entry<String, AtomicLong> gauge : new TreeMap<String, AtomicLong>(gauges).entrySet())
+            levels.add("    \"" + gauge.getKey() + "\": " + gauge.getValue().get());
+        
+        String json = "{\n  \"stages\": {\n" + String.join(",\n", lines) + "\n  },\n"
+                + "  \"counters\": {\n" + String.join(",\n", levels) + "\n  },\n"
+                + "  \"stop_word_hit_rate\": " + decimal(hitRate, 4) + "\n}\n";
+        try {
+            Files.write(Paths.get(output), json.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
\ No newline at end of file
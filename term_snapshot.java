@@ -0,0 +1,150 @@
+/******************************************************************************
+File Name:    term_snapshot.java
+Description:  This file holds the snapshot format of the counters used by the
+              Java term frequency programs. A snapshot saves every term and its
+              count in a compact binary file so that a later run can load it,
+              count only the new input, and save the merged counts again.
+              Snapshots made on different machines can be loaded together;
+              each one is merged the same way as the frequencies of a worker.
+              
+              Format: the magic bytes "TFS1", the number of terms as a varint,
+              then for every term the length of its UTF-8 bytes as a varint,
+              the bytes themselves, and its count as a varint.
+******************************************************************************/
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+public class term_snapshot {
+    
+    
+    //Class variables
+    private static final byte[] MAGIC = {'T', 'F', 'S', '1'};
+    
+    
+    /******************************************************************************
+    Function Name:  write
+    Purpose:        This function saves the terms of one or more counters (such as
+                    the shards of a merge, which never share a term) into a
+                    snapshot. The snapshot is written next to its final path and
+                    then moved into place, so a failed run never leaves a
+                    truncated snapshot behind
+    Input:          path  - The path of the snapshot
+                    counters  - The counters to save
+    Result:         The snapshot is written
+    ******************************************************************************/
+    public static void write(Path path, List<term_counter> counters) throws IOException {
+        long terms = 0;
+        for (term_counter counter : counters)
+            terms += counter.size();
+        
+        Path partial = path.resolveSibling(path.getFileName() + ".partial");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial)))) {
+            output.write(MAGIC);
+            writeVarint(output, terms);
+            
+            for (term_counter counter : counters) {
+                try {
+                    counter.forEach((term, count) -> {
+                        try {
+                            byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+                            writeVarint(output, bytes.length);
+                            output.write(bytes);
+                            writeVarint(output, count);
+                        }
+                        catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
+                catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+        }
+        
+        Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  read
+    Purpose:        This function loads a snapshot, adding the count of each of its
+                    terms to a counter (the terms go straight from the bytes of
+                    the snapshot into the counter)
+    Input:          path  - The path of the snapshot
+                    counter  - The counter receiving the terms
+    Result:         The counts of the snapshot are added to the counter
+    ******************************************************************************/
+    public static void read(Path path, term_counter counter) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            byte[] magic = new byte[MAGIC.length];
+            input.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new IOException(path + " is not a term frequency snapshot");
+            
+            long terms = readVarint(input);
+            byte[] bytes = new byte[64];
+            for (long i = 0; i < terms; i++) {
+                long length = readVarint(input);
+                if (length < 0 || length > Integer.MAX_VALUE)
+                    throw new IOException("malformed term frequency snapshot");
+                if (length > bytes.length)
+                    bytes = new byte[(int) Math.max(length, bytes.length * 2L)];
+                input.readFully(bytes, 0, (int) length);
+                counter.add(bytes, 0, (int) length, readVarint(input));
+            }
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  writeVarint
+    Purpose:        This function writes a non-negative number using 7 bits per
+                    byte, the high bit marking that more bytes follow
+    Input:          output  - The stream to write to
+                    value  - The number
+    Result:         The number is written in 1 to 10 bytes
+    ******************************************************************************/
+    private static void writeVarint(OutputStream output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  readVarint
+    Purpose:        This function reads a number written by writeVarint
+    Input:          input  - The stream to read from
+    Result:         The number
+    ******************************************************************************/
+    private static long readVarint(InputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.read();
+            if (b < 0)
+                throw new EOFException("truncated term frequency snapshot");
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("malformed term frequency snapshot");
+    }
+}
\ No newline at end of file
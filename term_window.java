@@ -0,0 +1,89 @@
+/******************************************************************************
+File Name:    term_window.java
+Description:  This file holds the windowed counts of the Java term frequency
+              programs. The non-stop terms are fed in the order they are read
+              and counted within consecutive windows of a fixed number of
+              terms; when a window is full its most frequent terms are kept
+              and a new window starts, so the terms that come and go through
+              a long text (its drift) can be followed while only one window
+              is counted at a time.
+******************************************************************************/
+
+
+import java.util.*;
+
+public class term_window {
+    
+    
+    //Instance variables
+    private final int size;
+    private final int k;
+    private term_count_table counts = new term_count_table();
+    private int seen = 0;
+    private long windows = 0;
+    private final List<String> lines = new ArrayList<String>();
+    
+    
+    public term_window(int size, int k) {
+        this.size = Math.max(1, size);
+        this.k = k;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  next
+    Purpose:        This function counts the next term within the current window,
+                    closing the window once it is full
+    Input:          term  - The term
+    Result:         The term is counted within its window
+    ******************************************************************************/
+    public void next(String term) {
+        counts.add(term, 1);
+        if (++seen == size)
+            close();
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  finish
+    Purpose:        This function closes the last window, which may be shorter
+                    than the others
+    Result:         The most frequent terms of the last window are kept
+    ******************************************************************************/
+    public void finish() {
+        if (seen > 0)
+            close();
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  close
+    Purpose:        This function keeps the most frequent terms of the current
+                    window as a line and starts the next window
+    Result:         The line of the window is kept and its counts are dropped
+    ******************************************************************************/
+    private void close() {
+        long first = windows * size + 1;
+        StringBuilder line = new StringBuilder();
+        line.append("window ").append(windows + 1).append(" (terms ").append(first).append('-').append(first + seen - 1).append("):");
+        for (Map.Entry<String, Long> term : top_k.of(counts, k).result())
+            line.append(' ').append(term.getKey()).append(' ').append(term.getValue());
+        lines.add(line.toString());
+        
+        counts = new term_count_table();
+        seen = 0;
+        windows++;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  print
+    Purpose:        This function prints out the most frequent terms of every
+                    window, one window per line
+    Result:         Prints out the line of each window
+    ******************************************************************************/
+    public void print() {
+        for (String line : lines)
+            System.out.println(line);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,551 @@
+/******************************************************************************
+File Name:    text_tokenizer.java
+Description:  This file holds the tokenizer shared by the Java term frequency
+              programs. The tokenizer works directly on the bytes of the text
+              file: in a single pass it lowercases the ASCII letters, splits
+              on every other byte, and drops the terms shorter than two
+              letters. Each distinct term is turned into a String only the
+              first time it is seen; afterwards the same String is handed out
+              again, so tokenizing does not allocate per term. Callers that
+              count the terms themselves can instead receive the bytes of each
+              term and skip the String entirely. The file can be read through
+              a fixed-size buffer so memory does not grow with the size of
+              the file.
+              
+              In the Unicode mode the bytes are read as UTF-8: any letter is
+              part of a term (as are the combining marks following one), the
+              letters are case folded and the terms can be normalized to NFC.
+              ASCII bytes still take the same path as in the default mode,
+              so only the non-ASCII characters pay for decoding.
+******************************************************************************/
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+public class text_tokenizer {
+    
+    
+    //Class variables
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int INITIAL_TERMS = 1024;
+    
+    
+    //Instance variables
+    private final boolean unicode;
+    private final boolean nfc;
+    private byte[] word = new byte[64];
+    private int length = 0;
+    private int extraBytes = 0;
+    private final byte[] pending = new byte[4];
+    private int pendingLength = 0;
+    private final byte[] scratch = new byte[4];
+    private String[] terms = new String[INITIAL_TERMS];
+    private byte[][] termBytes = new byte[INITIAL_TERMS][];
+    private int[] hashes = new int[INITIAL_TERMS];
+    private int termCount = 0;
+    
+    
+    /******************************************************************************
+    Function Name:  text_tokenizer
+    Purpose:        This function creates a tokenizer for ASCII letters only, or
+                    for the letters of any script
+    Input:          unicode  - Whether to read the bytes as UTF-8 and keep the
+                               non-ASCII letters
+                    nfc  - Whether to normalize the terms holding non-ASCII
+                           letters to NFC (Unicode mode only)
+    Result:         A tokenizer with no term started
+    ******************************************************************************/
+    public text_tokenizer() {
+        this(false, false);
+    }
+    
+    public text_tokenizer(boolean unicode, boolean nfc) {
+        this.unicode = unicode;
+        this.nfc = unicode && nfc;
+    }
+    
+    
+    /******************************************************************************
+    Interface:      termSink
+    Description:    Receives the bytes of each term; the bytes are only valid
+                    for the duration of the call
+    ******************************************************************************/
+    public interface termSink {
+        void accept(byte[] bytes, int offset, int length);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  tokenize
+    Purpose:        This function reads a text file in fixed-size chunks and
+                    passes each of its terms to the consumer
+    Input:          path  - The path to the text file specified
+                    consumer  - Receives each term in the order it is read
+    Result:         Every term of the text file is passed to the consumer
+    ******************************************************************************/
+    public void tokenize(String path, Consumer<String> consumer) throws IOException {
+        tokenize(Paths.get(path), consumer);
+    }
+    
+    public void tokenize(Path path, Consumer<String> consumer) throws IOException {
+        tokenize(path, interning(consumer));
+    }
+    
+    public void tokenize(Path path, termSink sink) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        
+        try (InputStream input = Files.newInputStream(path)) {
+            int read;
+            while ((read = input.read(buffer, 0, buffer.length)) != -1)
+                tokenize(buffer, 0, read, sink);
+        }
+        
+        finish(sink);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  tokenize
+    Purpose:        This function passes each term within a part of a byte array to
+                    the consumer. A term still open at the end of the array is
+                    kept so that it continues with the next call
+    Input:          bytes  - The bytes to tokenize
+                    offset  - The index of the first byte
+                    end  - The index after the last byte
+                    consumer  - Receives each term in the order it is read
+    Result:         Every complete term of the bytes is passed to the consumer
+    ******************************************************************************/
+    public void tokenize(byte[] bytes, int offset, int end, Consumer<String> consumer) {
+        tokenize(bytes, offset, end, interning(consumer));
+    }
+    
+    public void tokenize(byte[] bytes, int offset, int end, termSink sink) {
+        if (pendingLength > 0)
+            offset = completePending(bytes, offset, end, sink);
+        
+        for (int i = offset; i < end; i++) {
+            byte b = bytes[i];
+            if (b >= 'A' && b <= 'Z')
+                b = (byte) (b + ('a' - 'A'));
+            
+            if (b >= 'a' && b <= 'z')
+                append(b);
+            else if (b < 0 && unicode)
+                i = decode(bytes, i, end, sink) - 1;
+            else
+                finish(sink);
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  tokenize
+    Purpose:        This function passes each term between the position and the
+                    limit of a buffer (such as a memory-mapped range of a file) to
+                    the consumer
+    Input:          buffer  - The bytes to tokenize
+                    consumer  - Receives each term in the order it is read
+    Result:         Every term of the buffer is passed to the consumer
+    ******************************************************************************/
+    public void tokenize(ByteBuffer buffer, Consumer<String> consumer) {
+        tokenize(buffer, interning(consumer));
+    }
+    
+    public void tokenize(ByteBuffer buffer, termSink sink) {
+        for (int i = buffer.position(), limit = buffer.limit(); i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b >= 'A' && b <= 'Z')
+                b = (byte) (b + ('a' - 'A'));
+            
+            if (b >= 'a' && b <= 'z') {
+                append(b);
+            }
+            else if (b < 0 && unicode) {
+                int available = Math.min(scratch.length, limit - i);
+                for (int k = 0; k < available; k++)
+                    scratch[k] = buffer.get(i + k);
+                i += decode(scratch, 0, available, sink) - 1;
+            }
+            else {
+                finish(sink);
+            }
+        }
+        
+        finish(sink);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  finish
+    Purpose:        This function passes the term built so far to the consumer
+    Input:          consumer  - Receives the term
+    Result:         Passes the term to the consumer and clears it
+    ******************************************************************************/
+    public void finish(Consumer<String> consumer) {
+        finish(interning(consumer));
+    }
+    
+    public void finish(termSink sink) {
+        if (extraBytes > 0 && nfc)
+            normalize();
+        
+        
+        //Covers the edge cases such as the single 's' and whitespace characters (counting letters, not bytes)
+        if (length - extraBytes >= 2)
+            sink.accept(word, 0, length);
+        length = 0;
+        extraBytes = 0;
+        pendingLength = 0;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  decode
+    Purpose:        This function reads the UTF-8 character starting at a non-ASCII
+                    byte and adds it to the term or ends the term with it. A
+                    character cut off by the end of the bytes is kept so that
+                    it is completed by the next call
+    Input:          bytes  - The bytes being tokenized
+                    i  - The index of the first byte of the character
+                    end  - The index after the last byte
+                    sink  - Receives the term if the character ends it
+    Result:         The index after the character
+    ******************************************************************************/
+    private int decode(byte[] bytes, int i, int end, termSink sink) {
+        int size = sequenceSize(bytes[i]);
+        for (int k = 1; k < size; k++) {
+            if (i + k == end) {
+                pendingLength = end - i;
+                System.arraycopy(bytes, i, pending, 0, pendingLength);
+                return end;
+            }
+            if ((bytes[i + k] & 0xC0) != 0x80) {
+                
+                
+                //Malformed bytes end the term, the same as any other delimiter
+                finish(sink);
+                return i + 1;
+            }
+        }
+        
+        character(codePoint(bytes, i, size), sink);
+        return i + size;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  completePending
+    Purpose:        This function completes the character cut off by the end of the
+                    previous bytes
+    Input:          bytes  - The bytes being tokenized
+                    offset  - The index of the first byte
+                    end  - The index after the last byte
+                    sink  - Receives the term if the character ends it
+    Result:         The index of the first byte after the character
+    ******************************************************************************/
+    private int completePending(byte[] bytes, int offset, int end, termSink sink) {
+        int size = sequenceSize(pending[0]);
+        while (pendingLength < size && offset < end) {
+            if ((bytes[offset] & 0xC0) != 0x80) {
+                finish(sink);
+                return offset;
+            }
+            pending[pendingLength++] = bytes[offset++];
+        }
+        
+        if (pendingLength == size) {
+            pendingLength = 0;
+            character(codePoint(pending, 0, size), sink);
+        }
+        return offset;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  character
+    Purpose:        This function adds a non-ASCII character to the term if it is
+                    a letter (case folded) or a mark following a letter, and
+                    ends the term otherwise
+    Input:          codePoint  - The character (-1 if malformed)
+                    sink  - Receives the term if the character ends it
+    Result:         The character is added to the term or the term is passed on
+    ******************************************************************************/
+    private void character(int codePoint, termSink sink) {
+        if (codePoint < 0) {
+            finish(sink);
+            return;
+        }
+        
+        if (Character.isLetter(codePoint)) {
+            appendCodePoint(fold(codePoint), true);
+            return;
+        }
+        
+        int type = Character.getType(codePoint);
+        if (length > 0 && (type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK
+                || type == Character.ENCLOSING_MARK))
+            appendCodePoint(codePoint, false);
+        else
+            finish(sink);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  fold
+    Purpose:        This function case folds a letter the way the terms are folded
+                    (through the uppercase letter, so that letters such as the
+                    final sigma fold together with their lowercase form)
+    Input:          codePoint  - The letter
+    Result:         The folded letter
+    ******************************************************************************/
+    public static int fold(int codePoint) {
+        return Character.toLowerCase(Character.toUpperCase(codePoint));
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  appendCodePoint
+    Purpose:        This function adds the UTF-8 bytes of a character to the term
+    Input:          codePoint  - The character
+                    letter  - Whether the character counts as a letter of the
+                              term (marks do not)
+    Result:         The bytes are added and the bytes beyond one per letter are
+                    counted
+    ******************************************************************************/
+    private void appendCodePoint(int codePoint, boolean letter) {
+        int start = length;
+        if (codePoint < 0x80) {
+            append((byte) codePoint);
+        }
+        else if (codePoint < 0x800) {
+            append((byte) (0xC0 | (codePoint >> 6)));
+            append((byte) (0x80 | (codePoint & 0x3F)));
+        }
+        else if (codePoint < 0x10000) {
+            append((byte) (0xE0 | (codePoint >> 12)));
+            append((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+            append((byte) (0x80 | (codePoint & 0x3F)));
+        }
+        else {
+            append((byte) (0xF0 | (codePoint >> 18)));
+            append((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+            append((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+            append((byte) (0x80 | (codePoint & 0x3F)));
+        }
+        extraBytes += (length - start) - (letter ? 1 : 0);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  normalize
+    Purpose:        This function normalizes the term being built to NFC, so that
+                    a letter followed by a combining accent and the same letter
+                    written precomposed are the same term
+    Result:         The term is replaced by its NFC form
+    ******************************************************************************/
+    private void normalize() {
+        String term = new String(word, 0, length, StandardCharsets.UTF_8);
+        String normalized = Normalizer.normalize(term, Normalizer.Form.NFC);
+        if (normalized.equals(term))
+            return;
+        
+        length = 0;
+        extraBytes = 0;
+        for (int i = 0; i < normalized.length(); ) {
+            int codePoint = normalized.codePointAt(i);
+            appendCodePoint(codePoint, Character.isLetter(codePoint));
+            i += Character.charCount(codePoint);
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  sequenceSize
+    Purpose:        This function finds the number of bytes of a UTF-8 character
+                    from its first byte
+    Input:          lead  - The first byte of the character
+    Result:         The number of bytes (1 for a byte that cannot start one)
+    ******************************************************************************/
+    private static int sequenceSize(byte lead) {
+        int b = lead & 0xFF;
+        if (b >= 0xF0 && b <= 0xF4)
+            return 4;
+        if (b >= 0xE0)
+            return b <= 0xEF ? 3 : 1;
+        if (b >= 0xC2)
+            return 2;
+        return 1;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  codePoint
+    Purpose:        This function decodes a UTF-8 character whose bytes are known
+                    to be a lead byte followed by continuation bytes
+    Input:          bytes  - The bytes of the character
+                    i  - The index of the first byte
+                    size  - The number of bytes
+    Result:         The character, or -1 if the bytes do not form one
+    ******************************************************************************/
+    private static int codePoint(byte[] bytes, int i, int size) {
+        switch (size) {
+            case 2:
+                return ((bytes[i] & 0x1F) << 6) | (bytes[i + 1] & 0x3F);
+            case 3: {
+                int codePoint = ((bytes[i] & 0x0F) << 12) | ((bytes[i + 1] & 0x3F) << 6) | (bytes[i + 2] & 0x3F);
+                return codePoint < 0x800 || (codePoint >= 0xD800 && codePoint <= 0xDFFF) ? -1 : codePoint;
+            }
+            case 4: {
+                int codePoint = ((bytes[i] & 0x07) << 18) | ((bytes[i + 1] & 0x3F) << 12)
+                        | ((bytes[i + 2] & 0x3F) << 6) | (bytes[i + 3] & 0x3F);
+                return codePoint < 0x10000 || codePoint > 0x10FFFF ? -1 : codePoint;
+            }
+            default:
+                return -1;
+        }
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  interning
+    Purpose:        This function adapts a consumer of Strings to receive the bytes
+                    of each term
+    Input:          consumer  - Receives each term as a String
+    Result:         A sink passing the String of each term to the consumer
+    ******************************************************************************/
+    private termSink interning(Consumer<String> consumer) {
+        return (bytes, offset, length) -> consumer.accept(intern());
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  isLetter
+    Purpose:        This function checks if a byte is part of a term
+    Input:          b  - The byte to check
+    Result:         Whether the byte is an ASCII letter
+    ******************************************************************************/
+    public static boolean isLetter(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  isWordByte
+    Purpose:        This function checks if a byte may be part of a term, so that
+                    a file is never split within a term (or, in the Unicode mode,
+                    within a character)
+    Input:          b  - The byte to check
+                    unicode  - Whether the Unicode mode is used
+    Result:         Whether the byte is an ASCII letter or, in the Unicode mode,
+                    any non-ASCII byte
+    ******************************************************************************/
+    public static boolean isWordByte(byte b, boolean unicode) {
+        return isLetter(b) || (unicode && b < 0);
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  append
+    Purpose:        This function adds a letter to the term being built
+    Input:          b  - The lowercase letter
+    Result:         The letter is added to the term, growing the buffer if needed
+    ******************************************************************************/
+    private void append(byte b) {
+        if (length == word.length)
+            word = Arrays.copyOf(word, length * 2);
+        word[length++] = b;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  intern
+    Purpose:        This function finds the String of the term that was just built,
+                    creating it only the first time the term is seen
+    Result:         The String of the term
+    ******************************************************************************/
+    private String intern() {
+        int hash = 0;
+        for (int i = 0; i < length; i++)
+            hash = 31 * hash + word[i];
+        
+        int mask = terms.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        String term;
+        while ((term = terms[slot]) != null) {
+            if (hashes[slot] == hash && matches(term, termBytes[slot]))
+                return term;
+            slot = (slot + 1) & mask;
+        }
+        
+        
+        //Terms holding non-ASCII letters keep their bytes as well, since their characters no longer match the bytes one to one
+        if (extraBytes > 0) {
+            term = new String(word, 0, length, StandardCharsets.UTF_8);
+            termBytes[slot] = Arrays.copyOf(word, length);
+        }
+        else {
+            term = new String(word, 0, length, StandardCharsets.ISO_8859_1);
+        }
+        terms[slot] = term;
+        hashes[slot] = hash;
+        if (++termCount * 2 > terms.length)
+            grow();
+        return term;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  matches
+    Purpose:        This function compares the term being built with a String
+    Input:          term  - The String to compare with
+                    bytes  - The UTF-8 bytes of the String if it is not ASCII
+    Result:         Whether the String holds the same letters as the term
+    ******************************************************************************/
+    private boolean matches(String term, byte[] bytes) {
+        if (bytes != null)
+            return bytes.length == length && Arrays.equals(bytes, 0, length, word, 0, length);
+        if (term.length() != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (term.charAt(i) != word[i])
+                return false;
+        }
+        return true;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  grow
+    Purpose:        This function doubles the table of known terms
+    Result:         Every known term is placed within the larger table
+    ******************************************************************************/
+    private void grow() {
+        String[] oldTerms = terms;
+        byte[][] oldBytes = termBytes;
+        int[] oldHashes = hashes;
+        terms = new String[oldTerms.length * 2];
+        termBytes = new byte[oldTerms.length * 2][];
+        hashes = new int[oldTerms.length * 2];
+        
+        int mask = terms.length - 1;
+        for (int i = 0; i < oldTerms.length; i++) {
+            if (oldTerms[i] == null)
+                continue;
+            int slot = (oldHashes[i] ^ (oldHashes[i] >>> 16)) & mask;
+            while (terms[slot] != null)
+                slot = (slot + 1) & mask;
+            terms[slot] = oldTerms[i];
+            termBytes[slot] = oldBytes[i];
+            hashes[slot] = oldHashes[i];
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,143 @@
+/******************************************************************************
+File Name:    top_k.java
+Description:  This file holds the selection of the most frequent terms shared
+              by the Java term frequency programs. Rather than sorting every
+              term, the terms are passed through a min-heap that never holds
+              more than K terms, so selecting the top K of N terms costs
+              O(N log K). Terms with the same count are ordered alphabetically
+              so that the result does not depend on the order the terms were
+              counted in. Selections made over separate shards can be merged.
+******************************************************************************/
+
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+
+public class top_k {
+    
+    
+    //Class variables
+    public static final Comparator<Entry<String, Long>> ORDER = (word1, word2) -> {
+        int order = Long.compare(word2.getValue(), word1.getValue());
+        return order != 0 ? order : word1.getKey().compareTo(word2.getKey());
+    };
+    
+    
+    //Instance variables
+    private final int k;
+    private final PriorityQueue<Entry<String, Long>> heap;
+    
+    
+    public top_k(int k) {
+        this.k = k;
+        this.heap = new PriorityQueue<Entry<String, Long>>(Math.max(1, k), ORDER.reversed());
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  of
+    Purpose:        This function selects the most frequent terms of a counter
+    Input:          counter  - The counter holding the terms
+                    k  - The number of terms to select
+    Result:         The selection of the K most frequent terms
+    ******************************************************************************/
+    public static top_k of(term_counter counter, int k) {
+        top_k top = new top_k(k);
+        counter.offerTo(top);
+        return top;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  admits
+    Purpose:        This function checks if a term with the given count could be
+                    kept, so callers can skip building the term otherwise
+    Input:          count  - The count of the term
+    Result:         Whether a term with this count could be kept
+    ******************************************************************************/
+    public boolean admits(long count) {
+        return k > 0 && (heap.size() < k || count >= heap.peek().getValue());
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  offer
+    Purpose:        This function keeps a term if it is among the K most frequent
+                    terms seen so far
+    Input:          term  - The term
+                    count  - The count of the term
+    Result:         The term replaces the least frequent term kept if it ranks
+                    higher, or is dropped otherwise
+    ******************************************************************************/
+    public void offer(String term, long count) {
+        if (k <= 0)
+            return;
+        
+        if (heap.size() == k) {
+            Entry<String, Long> least = heap.peek();
+            if (count < least.getValue() || (count == least.getValue() && term.compareTo(least.getKey()) >= 0))
+                return;
+            heap.poll();
+        }
+        
+        heap.offer(new AbstractMap.SimpleImmutableEntry<String, Long>(term, count));
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  addAll
+    Purpose:        This function merges the selection made over another shard
+    Input:          other  - The selection of the other shard
+    Result:         The K most frequent terms of both selections are kept
+    ******************************************************************************/
+    public void addAll(top_k other) {
+        for (Entry<String, Long> entry : other.heap)
+            offer(entry.getKey(), entry.getValue());
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  result
+    Purpose:        This function lists the terms kept from the most frequent to
+                    the least frequent
+    Result:         The sorted list of the terms kept
+    ******************************************************************************/
+    public List<Entry<String, Long>> result() {
+        List<Entry<String, Long>> sorted = new ArrayList<Entry<String, Long>>(heap);
+        Collections.sort(sorted, ORDER);
+        return sorted;
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  print
+    Purpose:        This function prints out the terms kept and their frequencies
+                    (each line is put together with a StringBuilder rather than
+                    +, whose first use bootstraps the string concatenation of
+                    the JVM and costs a short run tens of milliseconds)
+    Result:         Prints out the terms kept and their frequencies
+    ******************************************************************************/
+    public void print() {
+        for (Entry<String, Long> p : result())
+            System.out.println(new StringBuilder(p.getKey()).append("  -  ").append(p.getValue()));
+    }
+    
+    
+    /******************************************************************************
+    Function Name:  format
+    Purpose:        This function writes out the terms kept and their frequencies
+                    the same way print does, one term per line
+    Result:         The lines that print would display
+    ******************************************************************************/
+    public String format() {
+        StringBuilder lines = new StringBuilder();
+        for (Entry<String, Long> p : result())
+            lines.append(p.getKey()).append("  -  ").append(p.getValue()).append('\n');
+        return lines.toString();
+    }
+}
\ No newline at end of file